@@ -7,6 +7,7 @@ import com.rethinkdb.net.Connection;
 import com.squareup.javapoet.*;
 import de.jakobjarosch.rethinkdb.orm.annotation.PrimaryKey;
 import de.jakobjarosch.rethinkdb.orm.annotation.RethinkDBModel;
+import de.jakobjarosch.rethinkdb.orm.dao.DAOSession;
 import de.jakobjarosch.rethinkdb.orm.dao.GenericDAO;
 import de.jakobjarosch.rethinkdb.orm.model.IndexModel;
 import de.jakobjarosch.rethinkdb.orm.model.PrimaryKeyModel;
@@ -28,6 +29,7 @@ import java.io.Writer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 @AutoService(Processor.class)
@@ -92,7 +94,16 @@ public class RethinkDBDAOProcessor extends AbstractProcessor {
                             .addMethod(MethodSpec.constructorBuilder()
                                     .addModifiers(Modifier.PUBLIC)
                                     .addParameter(RethinkDBPool.class, "pool")
-                                    .addStatement("this(() -> pool.getConnection())")
+                                    .addStatement("this(() -> pool.getConnection(), () -> pool.getConnection($T.STREAMING_PARTITION))",
+                                            RethinkDBPool.class)
+                                    .build())
+
+                            .addMethod(MethodSpec.constructorBuilder()
+                                    .addModifiers(Modifier.PUBLIC)
+                                    .addParameter(RethinkDBPool.class, "pool")
+                                    .addParameter(Executor.class, "executor")
+                                    .addStatement("this(pool)")
+                                    .addStatement("setExecutor(executor)")
                                     .build())
 
                             .addMethod(MethodSpec.constructorBuilder()
@@ -104,11 +115,27 @@ public class RethinkDBDAOProcessor extends AbstractProcessor {
                             .addMethod(MethodSpec.constructorBuilder()
                                     .addModifiers(Modifier.PUBLIC)
                                     .addParameter(connectionProviderType, "connectionProvider")
-                                    .addStatement("super(connectionProvider, $T.class, $S, $S)",
+                                    .addStatement("this(connectionProvider, connectionProvider)")
+                                    .build())
+
+                            .addMethod(MethodSpec.constructorBuilder()
+                                    .addModifiers(Modifier.PUBLIC)
+                                    .addParameter(connectionProviderType, "connectionProvider")
+                                    .addParameter(connectionProviderType, "feedConnectionProvider")
+                                    .addStatement("super(connectionProvider, feedConnectionProvider, $T.class, $S, $S)",
                                             modelType, modelAnnotation.tableName(), primaryKey.getVariableName())
                                     .addCode(createIndiceCodeBlock(indices))
                                     .build())
 
+                            .addMethod(MethodSpec.methodBuilder("withSession")
+                                    .addAnnotation(Override.class)
+                                    .addModifiers(Modifier.PUBLIC)
+                                    .addParameter(DAOSession.class, "session")
+                                    .returns(ClassName.get(packageName, daoClassName))
+                                    .addStatement("return copySettings(new $L(session.getConnectionProvider(), getFeedConnectionProvider()))",
+                                            daoClassName)
+                                    .build())
+
                             .build();
 
                     JavaFile.builder(packageElement.getQualifiedName().toString(), type)
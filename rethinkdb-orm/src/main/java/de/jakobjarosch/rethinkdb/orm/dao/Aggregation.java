@@ -0,0 +1,70 @@
+package de.jakobjarosch.rethinkdb.orm.dao;
+
+import com.rethinkdb.gen.ast.ReqlExpr;
+
+import java.util.function.Function;
+
+/**
+ * A reduction which is calculated by the server, see {@link GenericDAO#aggregate(Function, Aggregation)}
+ * and {@link GenericDAO#groupBy(Function, String, Aggregation)}.
+ * Only the result is transferred, the documents are neither sent to nor mapped by the client.
+ *
+ * @param <V> The type of the result.
+ */
+public final class Aggregation<V> {
+
+    private final Function<ReqlExpr, ReqlExpr> reduction;
+    private final Function<Number, V> conversion;
+
+    private Aggregation(Function<ReqlExpr, ReqlExpr> reduction, Function<Number, V> conversion) {
+        this.reduction = reduction;
+        this.conversion = conversion;
+    }
+
+    /**
+     * @return Counts the documents.
+     */
+    public static Aggregation<Long> count() {
+        return new Aggregation<>(ReqlExpr::count, Number::longValue);
+    }
+
+    /**
+     * @param field The numeric field which should be summed up, documents without the field are skipped.
+     * @return Sums up the values of the field.
+     */
+    public static Aggregation<Double> sum(String field) {
+        return new Aggregation<>(selection -> selection.sum(field), Number::doubleValue);
+    }
+
+    /**
+     * @param field The numeric field which should be averaged, documents without the field are skipped.
+     * @return Averages the values of the field.
+     */
+    public static Aggregation<Double> avg(String field) {
+        return new Aggregation<>(selection -> selection.avg(field), Number::doubleValue);
+    }
+
+    /**
+     * @param field The numeric field, documents without the field are skipped.
+     * @return The minimum value of the field.
+     */
+    public static Aggregation<Double> min(String field) {
+        return new Aggregation<>(selection -> selection.min(field).g(field), Number::doubleValue);
+    }
+
+    /**
+     * @param field The numeric field, documents without the field are skipped.
+     * @return The maximum value of the field.
+     */
+    public static Aggregation<Double> max(String field) {
+        return new Aggregation<>(selection -> selection.max(field).g(field), Number::doubleValue);
+    }
+
+    ReqlExpr reduce(ReqlExpr selection) {
+        return reduction.apply(selection);
+    }
+
+    V convert(Object result) {
+        return conversion.apply((Number) result);
+    }
+}
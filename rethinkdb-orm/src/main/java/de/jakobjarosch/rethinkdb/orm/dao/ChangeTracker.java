@@ -0,0 +1,71 @@
+package de.jakobjarosch.rethinkdb.orm.dao;
+
+import com.google.common.collect.MapMaker;
+import com.rethinkdb.RethinkDB;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Remembers the mapped state of models when they were read or written, so an update only has to send
+ * the fields which changed since then. Models are referenced weakly and compared by identity,
+ * a snapshot is dropped as soon as its model is garbage collected.
+ */
+class ChangeTracker {
+
+    private final Map<Object, Map<?, ?>> snapshots = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * @param model  The model which should be tracked.
+     * @param mapped The mapped state of the model as known by the database, must not be modified afterwards.
+     */
+    void track(Object model, Map<?, ?> mapped) {
+        if (model != null) {
+            snapshots.put(model, mapped);
+        }
+    }
+
+    Optional<Map<?, ?>> getSnapshot(Object model) {
+        return Optional.ofNullable(snapshots.get(model));
+    }
+
+    /**
+     * Calculates the changes between two mapped states of a model. Nested objects are diffed recursively,
+     * because an update merges them. Lists and other values are replaced as a whole.
+     * Removed fields are deleted with a <a href="https://rethinkdb.com/api/java/literal/">literal</a>.
+     *
+     * @param before The previous mapped state.
+     * @param after  The current mapped state.
+     * @return A partial document containing only the changed paths, empty when nothing changed.
+     */
+    static Map<Object, Object> diff(Map<?, ?> before, Map<?, ?> after) {
+        final Map<Object, Object> changes = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> entry : after.entrySet()) {
+            final Object key = entry.getKey();
+            final Object value = entry.getValue();
+            if (!before.containsKey(key)) {
+                changes.put(key, value);
+                continue;
+            }
+
+            final Object previous = before.get(key);
+            if (previous instanceof Map && value instanceof Map) {
+                final Map<Object, Object> nested = diff((Map<?, ?>) previous, (Map<?, ?>) value);
+                if (!nested.isEmpty()) {
+                    changes.put(key, nested);
+                }
+            } else if (!Objects.equals(previous, value)) {
+                changes.put(key, value);
+            }
+        }
+
+        for (Object key : before.keySet()) {
+            if (!after.containsKey(key)) {
+                changes.put(key, RethinkDB.r.literal());
+            }
+        }
+        return changes;
+    }
+}
@@ -5,46 +5,94 @@ import com.rethinkdb.net.Cursor;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
+/**
+ * Iterates over the result of a query, every document is mapped to the model when it is returned by {@link #next()}.
+ * <br>
+ * The iterator closes itself when all documents have been returned.
+ * When it is not iterated to the end it has to be closed, otherwise the underlying cursor and connection are kept open.
+ */
 public class DAOIterator<T> implements Iterator<T>, Closeable {
 
     private final Iterator<?> iterator;
     private final Optional<Closeable> closable;
-    private final Class<T> clazz;
-    private final ModelMapper mapper;
+    private final Function<Map<?, ?>, T> mapping;
+
+    private boolean closed = false;
 
     public DAOIterator(Iterator<?> iterator, Class<T> clazz, ModelMapper mapper) {
-        this.iterator = iterator;
-        this.closable = Optional.empty();
-        this.clazz = clazz;
-        this.mapper = mapper;
+        this(iterator, Optional.empty(), map -> mapper.map(map, clazz));
     }
 
     public DAOIterator(Cursor<?> cursor, Class<T> clazz, ModelMapper mapper) {
-        this.iterator = cursor;
-        this.closable = Optional.of(cursor::close);
-        this.clazz = clazz;
-        this.mapper = mapper;
+        this(cursor, Optional.of(cursor::close), map -> mapper.map(map, clazz));
+    }
+
+    /**
+     * @param iterator The iterator returning the database documents.
+     * @param closable Called when the iterator is closed.
+     * @param mapping  Maps a database document to a model.
+     */
+    DAOIterator(Iterator<?> iterator, Optional<Closeable> closable, Function<Map<?, ?>, T> mapping) {
+        this.iterator = iterator;
+        this.closable = closable;
+        this.mapping = mapping;
     }
 
     @Override
     public void close() throws IOException {
-        if (closable.isPresent()) {
-            closable.get().close();
+        if (!closed) {
+            closed = true;
+            if (closable.isPresent()) {
+                closable.get().close();
+            }
         }
     }
 
     @Override
     public boolean hasNext() {
-        return iterator.hasNext();
+        if (closed) {
+            return false;
+        }
+
+        final boolean hasNext = iterator.hasNext();
+        if (!hasNext) {
+            closeUnchecked();
+        }
+        return hasNext;
     }
 
     @Override
     public T next() {
-        return mapper.map((Map) iterator.next(), clazz);
+        return mapping.apply((Map<?, ?>) iterator.next());
+    }
+
+    /**
+     * Returns the remaining models as a sequential {@link Stream}. Closing the stream closes this iterator,
+     * so use it within a try-resource scope when the stream might not be consumed completely.
+     *
+     * @return A stream of the remaining models.
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+                .onClose(this::closeUnchecked);
+    }
+
+    private void closeUnchecked() {
+        try {
+            close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
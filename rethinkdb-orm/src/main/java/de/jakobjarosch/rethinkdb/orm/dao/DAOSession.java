@@ -0,0 +1,58 @@
+package de.jakobjarosch.rethinkdb.orm.dao;
+
+import com.rethinkdb.gen.exc.ReqlDriverError;
+import com.rethinkdb.net.Connection;
+import de.jakobjarosch.rethinkdb.pool.PersistentConnection;
+
+import javax.inject.Provider;
+
+/**
+ * A session holds a single connection which is shared by all DAOs bound to the session,
+ * see {@link GenericDAO#withSession(DAOSession)}. Operations of bound DAOs do not borrow and return
+ * a connection each, the connection is only returned when the session is closed.
+ * <br>
+ * A session is meant to be used by a single thread, e.g. for the duration of a request.
+ * <pre>{@code
+ * try (DAOSession session = new DAOSession(pool.getConnection())) {
+ *     User user = userDAO.withSession(session).read(userId).get();
+ *     orderDAO.withSession(session).create(new Order(user));
+ * }
+ * }</pre>
+ */
+public class DAOSession implements AutoCloseable {
+
+    private final Connection connection;
+
+    /**
+     * @param connection The connection of the session, it is closed when the session is closed.
+     */
+    public DAOSession(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * @return The connection of the session, e.g. to run custom queries.
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * @return A provider returning the connection of the session, closing a provided connection
+     * does not close the session.
+     * @throws ReqlDriverError Thrown by the provider when the session is already closed.
+     */
+    public Provider<Connection> getConnectionProvider() {
+        return () -> {
+            if (!connection.isOpen()) {
+                throw new ReqlDriverError("Session is already closed.");
+            }
+            return new PersistentConnection(connection);
+        };
+    }
+
+    @Override
+    public void close() {
+        connection.close();
+    }
+}
@@ -1,10 +1,13 @@
 package de.jakobjarosch.rethinkdb.orm.dao;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.rethinkdb.RethinkDB;
+import com.rethinkdb.gen.ast.Changes;
 import com.rethinkdb.gen.ast.GetField;
 import com.rethinkdb.gen.ast.IndexCreate;
+import com.rethinkdb.gen.ast.Insert;
 import com.rethinkdb.gen.ast.ReqlExpr;
 import com.rethinkdb.gen.ast.Table;
 import com.rethinkdb.gen.exc.ReqlClientError;
@@ -13,33 +16,291 @@ import com.rethinkdb.gen.exc.ReqlInternalError;
 import com.rethinkdb.model.OptArgs;
 import com.rethinkdb.net.Connection;
 import com.rethinkdb.net.Cursor;
+import de.jakobjarosch.rethinkdb.orm.model.BulkWriteResult;
 import de.jakobjarosch.rethinkdb.orm.model.ChangeFeedElement;
+import de.jakobjarosch.rethinkdb.orm.model.ConflictStrategy;
 import de.jakobjarosch.rethinkdb.orm.model.IndexModel;
+import de.jakobjarosch.rethinkdb.orm.model.Page;
+import de.jakobjarosch.rethinkdb.orm.model.WriteResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import rx.Observable;
 
 import javax.inject.Provider;
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class GenericDAO<T, PK> {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(GenericDAO.class);
+
     private static final RethinkDB R = RethinkDB.r;
     private static final ModelMapper MAPPER = new ModelMapper();
 
+    /**
+     * The default maximum number of models sent with a single bulk query.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * The default maximum estimated payload in bytes sent with a single bulk query.
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * The default number of noreply writes after which a {@link NoReplyWriter} waits for the server.
+     */
+    public static final int DEFAULT_SYNC_WRITES = 1000;
+
+    /**
+     * The default time in milliseconds after which a {@link NoReplyWriter} waits for the server.
+     */
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+
+    /**
+     * The number of threads of the default executor of a DAO. The driver blocks a thread per running query,
+     * so the number of threads limits the number of concurrently running asynchronous queries of the DAO.
+     */
+    private static final int DEFAULT_ASYNC_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * Idle threads of the default executor are stopped after this time, so unused DAOs do not hold threads.
+     */
+    private static final long ASYNC_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
 
     private final Provider<Connection> connectionProvider;
+    private final Provider<Connection> feedConnectionProvider;
     private final Class<T> clazz;
     private final String tableName;
     private final String primaryKey;
 
     private final Set<IndexModel> indices = new HashSet<>();
 
+    private ChangeTracker changeTracker;
+    private Executor executor;
+    private ReadCache cache;
+    private ReadBatcher batcher;
+
     public GenericDAO(Provider<Connection> connection, Class<T> clazz, String tableName, String primaryKey) {
+        this(connection, connection, clazz, tableName, primaryKey);
+    }
+
+    /**
+     * @param connection     Provides the connections for request/response queries.
+     * @param feedConnection Provides the connections for change feeds, which are held as long as the feed is subscribed.
+     * @param clazz          The model class.
+     * @param tableName      The name of the table.
+     * @param primaryKey     The name of the primary key field.
+     */
+    public GenericDAO(Provider<Connection> connection, Provider<Connection> feedConnection,
+                      Class<T> clazz, String tableName, String primaryKey) {
         this.connectionProvider = connection;
+        this.feedConnectionProvider = feedConnection;
         this.clazz = clazz;
         this.tableName = tableName;
         this.primaryKey = primaryKey;
+        this.executor = newDefaultExecutor(tableName);
+    }
+
+    /**
+     * Opens a session which holds a single connection until it is closed.
+     *
+     * @return A new session, which must be closed after use.
+     * @see #withSession(DAOSession)
+     */
+    public DAOSession openSession() {
+        return new DAOSession(connectionProvider.get());
+    }
+
+    /**
+     * Opens a writer sending noreply writes, see {@link #openNoReplyWriter(int, long)}.
+     * A barrier is sent every {@value #DEFAULT_SYNC_WRITES} writes or every {@value #DEFAULT_SYNC_INTERVAL_MILLIS}ms.
+     *
+     * @return A new writer, which must be closed after use.
+     */
+    public NoReplyWriter<T, PK> openNoReplyWriter() {
+        return openNoReplyWriter(DEFAULT_SYNC_WRITES, DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens a writer for writes which do not wait for the response of the server, e.g. for telemetry.
+     * The writer holds a single connection until it is closed.
+     *
+     * @param syncWrites         Number of writes after which the writer waits until the server processed them.
+     * @param syncIntervalMillis Time after which the next write waits until the server processed all writes.
+     * @return A new writer, which must be closed after use.
+     * @see NoReplyWriter
+     */
+    public NoReplyWriter<T, PK> openNoReplyWriter(int syncWrites, long syncIntervalMillis) {
+        if (syncWrites < 1) {
+            throw new ReqlClientError("Constraint violated: syncWrites >= 1");
+        }
+        return new NoReplyWriter<>(connectionProvider, tableName, primaryKey, this::mapDocument, this::invalidate,
+                syncWrites, syncIntervalMillis);
+    }
+
+    /**
+     * Opens a buffer which collects updates per primary key and writes them in batches, see {@link WriteBehindBuffer}.
+     *
+     * @param maxPending          Maximum number of buffered models, further updates block until the buffer is flushed.
+     * @param flushSize           Number of buffered models which triggers a flush.
+     * @param flushIntervalMillis Time after which buffered models are flushed.
+     * @return A new buffer, which must be closed after use to flush the remaining models.
+     */
+    public WriteBehindBuffer<T, PK> openWriteBehindBuffer(int maxPending, int flushSize, long flushIntervalMillis) {
+        if (flushSize < 1 || flushSize > maxPending) {
+            throw new ReqlClientError("Constraint violated: 1 <= flushSize <= maxPending");
+        }
+        if (flushIntervalMillis < 1) {
+            throw new ReqlClientError("Constraint violated: flushIntervalMillis >= 1");
+        }
+        return new WriteBehindBuffer<>(tableName, primaryKey, MAPPER::mapPartial,
+                documents -> insertDocuments(documents.iterator(), DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_BYTES, ConflictStrategy.UPDATE),
+                maxPending, flushSize, flushIntervalMillis);
+    }
+
+    /**
+     * Returns a DAO which runs all operations on the connection of the given session.
+     * Change feeds are not bound to the session, they still use their own connections.
+     *
+     * @param session The session whose connection should be used.
+     * @return A DAO bound to the session.
+     */
+    public GenericDAO<T, PK> withSession(DAOSession session) {
+        final GenericDAO<T, PK> dao = new GenericDAO<>(session.getConnectionProvider(), feedConnectionProvider,
+                clazz, tableName, primaryKey);
+        dao.indices.addAll(indices);
+        return copySettings(dao);
+    }
+
+    /**
+     * Enables the change tracking. The state of every model read or written by this DAO is remembered,
+     * an {@link #update(Object, Object)} of such a model only sends the fields which changed since then.
+     * When nothing changed no query is sent at all.
+     * <br>
+     * Note: Changes made by others in the meantime are not overwritten by the fields which did not change.
+     *
+     * @param enabled Whether changes should be tracked.
+     */
+    public void setChangeTracking(boolean enabled) {
+        this.changeTracker = enabled ? new ChangeTracker() : null;
+    }
+
+    /**
+     * Sets the executor which runs the asynchronous operations, e.g. {@link #readAsync(Object)}.
+     * By default every DAO has its own executor with a fixed number of threads, which are stopped while idle.
+     * So blocking queries of one DAO can not starve the asynchronous operations of other DAOs.
+     *
+     * @param executor The executor running the blocking queries.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Enables a cache for {@link #read(Object)}, so reads of hot models do not query the database.
+     * The cache is kept coherent by a change feed on the table, which holds a connection of the feed connection provider.
+     * Models written by this DAO are evicted right away, {@link #deleteWhere(Function)} and
+     * {@link #updateWhere(Function, Object)} clear the whole cache. Changes made by others evict the models when their
+     * change arrives.
+     * Writes of a {@link NoReplyWriter} are evicted when they are sent, a read before the server processed the write
+     * might cache the old model until its change arrives.
+     * <br>
+     * Until the change feed is ready, or while it is restored after a failure, the cache is bypassed.
+     * The time to live bounds how long a model might be outdated if a change is missed nevertheless.
+     *
+     * @param maximumSize Maximum number of cached models, the least recently used ones are evicted first.
+     * @param ttlMillis   Time after which a cached model expires.
+     */
+    public void enableCache(long maximumSize, long ttlMillis) {
+        disableCache();
+        this.cache = new ReadCache(maximumSize, ttlMillis, primaryKey, feed(t -> t, true));
+    }
+
+    /**
+     * Disables the cache and unsubscribes its change feed, see {@link #enableCache(long, long)}.
+     */
+    public void disableCache() {
+        if (cache != null) {
+            cache.close();
+            cache = null;
+        }
+    }
+
+    /**
+     * Enables the batching of {@link #read(Object)}. Concurrent reads are merged into a single getAll, which is sent
+     * when it contains the maximum number of keys or when the batch window elapsed after its first read.
+     * Concurrent reads of the same key waiting for the same batch share a single result. So fan-outs of many threads need fewer queries
+     * and connections, at the cost of up to the batch window of latency for single reads.
+     * <br>
+     * Batches whose window elapsed are read by threads of the batcher. DAOs bound to a session do not batch.
+     *
+     * @param maxBatchSize Maximum number of keys per getAll.
+     * @param windowMillis Time a batch waits for further reads.
+     */
+    public void enableReadBatching(int maxBatchSize, long windowMillis) {
+        if (maxBatchSize < 1) {
+            throw new ReqlClientError("Constraint violated: maxBatchSize >= 1");
+        }
+        disableReadBatching();
+        this.batcher = new ReadBatcher(tableName, primaryKey, this::loadAll, maxBatchSize, windowMillis);
+    }
+
+    /**
+     * Disables the batching of reads, a pending batch is read right away. See {@link #enableReadBatching(int, long)}.
+     */
+    public void disableReadBatching() {
+        if (batcher != null) {
+            final ReadBatcher closed = batcher;
+            batcher = null;
+            closed.close();
+        }
+    }
+
+    /**
+     * Applies the settings of this DAO to another DAO of the same model, e.g. one bound to a session.
+     * State like tracked changes is shared between both.
+     *
+     * @param dao The DAO which should receive the settings.
+     * @return The given DAO.
+     */
+    protected <D extends GenericDAO<T, PK>> D copySettings(D dao) {
+        ((GenericDAO<T, PK>) dao).changeTracker = changeTracker;
+        ((GenericDAO<T, PK>) dao).executor = executor;
+        ((GenericDAO<T, PK>) dao).cache = cache;
+        return dao;
+    }
+
+    protected Provider<Connection> getFeedConnectionProvider() {
+        return feedConnectionProvider;
     }
 
     protected void addIndex(boolean geo, String fields) {
@@ -79,15 +340,110 @@ public class GenericDAO<T, PK> {
      */
     public void create(T model) {
         try (Connection connection = connectionProvider.get()) {
-            Map<?, ?> map = MAPPER.map(model);
+            Map<?, ?> map = mapDocument(model);
             Map<String, ?> result = R.table(tableName).insert(map).run(connection);
 
             if (((Long) result.get("errors")) > 0) {
                 throw new ReqlClientError("Failed to create model: %s", ((String) result.get("first_error")).split("\n")[0]);
             }
+            track(model, map);
         }
     }
 
+    /**
+     * Creates all models in the RethinkDB table, see {@link #createAll(Iterator, int, long)}.
+     *
+     * @param models Models which should be created.
+     * @return The results of all chunks in the order of the input.
+     */
+    public List<BulkWriteResult> createAll(Collection<T> models) {
+        return createAll(models.iterator());
+    }
+
+    /**
+     * Creates all models in the RethinkDB table, see {@link #createAll(Iterator, int, long)}.
+     *
+     * @param models Models which should be created.
+     * @return The results of all chunks in the order of the input.
+     */
+    public List<BulkWriteResult> createAll(Iterator<T> models) {
+        return createAll(models, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * Creates all models in the RethinkDB table. The models are sent in chunks, a chunk is closed when it
+     * reaches the maximum number of models or the maximum estimated payload. All chunks are sent on the same connection.
+     * <br>
+     * Failing models do not abort the bulk write, the errors are reported in the result of their chunk.
+     *
+     * @param models     Models which should be created, they are consumed lazily.
+     * @param chunkSize  Maximum number of models per chunk.
+     * @param chunkBytes Maximum estimated payload per chunk in bytes, a single larger model is sent alone.
+     * @return The results of all chunks in the order of the input.
+     */
+    public List<BulkWriteResult> createAll(Iterator<T> models, int chunkSize, long chunkBytes) {
+        return insertAll(models, chunkSize, chunkBytes, ConflictStrategy.ERROR);
+    }
+
+    /**
+     * Creates the model or updates it when a model with the same primary key already exists,
+     * see {@link #save(Object, ConflictStrategy)}.
+     *
+     * @param model Model which should be saved.
+     * @return The summary of the write.
+     */
+    public WriteResult save(T model) {
+        return save(model, ConflictStrategy.UPDATE);
+    }
+
+    /**
+     * Saves a model with a single query, without reading it first. Whether the model already exists
+     * is determined by the primary key field of the model, when it is not set a new key is generated.
+     *
+     * @param model    Model which should be saved.
+     * @param conflict Defines what happens when a model with the same primary key already exists.
+     * @return The summary of the write.
+     * @throws ReqlClientError Error is thrown when the model could not be saved.
+     *                         E.g. the conflict strategy is {@link ConflictStrategy#ERROR} and the model exists.
+     */
+    public WriteResult save(T model, ConflictStrategy conflict) {
+        try (Connection connection = connectionProvider.get()) {
+            Map<?, ?> map = mapDocument(model);
+            Map<String, ?> result = insert(map, conflict).run(connection);
+            if (map.containsKey(primaryKey)) {
+                invalidate(map.get(primaryKey));
+            }
+
+            WriteResult writeResult = toWriteResult(result);
+            if (writeResult.hasErrors()) {
+                throw new ReqlClientError("Failed to save model: %s", writeResult.getFirstError().get().split("\n")[0]);
+            }
+            track(model, map);
+            return writeResult;
+        }
+    }
+
+    /**
+     * Saves all models, existing models are updated. See {@link #saveAll(Collection, ConflictStrategy)}.
+     *
+     * @param models Models which should be saved.
+     * @return The results of all chunks in the order of the input.
+     */
+    public List<BulkWriteResult> saveAll(Collection<T> models) {
+        return saveAll(models, ConflictStrategy.UPDATE);
+    }
+
+    /**
+     * Saves all models in chunks without reading them first, like {@link #createAll(Iterator, int, long)}.
+     *
+     * @param models   Models which should be saved.
+     * @param conflict Defines what happens when a model with the same primary key already exists.
+     * @return The results of all chunks in the order of the input.
+     */
+    public List<BulkWriteResult> saveAll(Collection<T> models, ConflictStrategy conflict) {
+        return insertAll(models.iterator(), DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_BYTES, conflict);
+    }
+
     /**
      * Retrieves a model with the given primary key.
      *
@@ -95,9 +451,58 @@ public class GenericDAO<T, PK> {
      * @return Maybe the model matching the given primary key.
      */
     public Optional<T> read(PK id) {
+        final ReadBatcher batcher = this.batcher;
+        final Function<Object, Map<?, ?>> loader = batcher != null ? batcher::get : this::load;
+        final Map<?, ?> map = cache != null ? cache.get(id, loader) : loader.apply(id);
+        return Optional.ofNullable(mapTracked(map));
+    }
+
+    /**
+     * Retrieves all models with the given primary keys, see {@link #readAll(Collection, int, Executor)}.
+     *
+     * @param ids The primary keys of the models which should be retrieved.
+     * @return The found models by their primary key, in the order of the given keys.
+     */
+    public Map<PK, T> readAll(Collection<PK> ids) {
+        return readAll(ids, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Retrieves all models with the given primary keys, all chunks are read one after another on the same connection.
+     *
+     * @param ids       The primary keys of the models which should be retrieved.
+     * @param chunkSize Maximum number of keys per query.
+     * @return The found models by their primary key, in the order of the given keys.
+     */
+    public Map<PK, T> readAll(Collection<PK> ids, int chunkSize) {
+        final List<List<PK>> chunks = chunk(ids, chunkSize);
+        final Map<Object, T> found = new HashMap<>();
         try (Connection connection = connectionProvider.get()) {
-            Map<?, ?> map = R.table(tableName).get(id).run(connection);
-            return Optional.ofNullable(MAPPER.map(map, clazz));
+            for (List<PK> chunk : chunks) {
+                found.putAll(readChunk(connection, chunk));
+            }
+        }
+        return orderByKeys(ids, found);
+    }
+
+    /**
+     * Retrieves all models with the given primary keys. The keys are split into chunks which are read
+     * with <a href="https://rethinkdb.com/api/java/get_all/">getAll</a>, every chunk is read in parallel
+     * on its own connection using the given executor. Keys without a model are not contained in the result.
+     *
+     * @param ids       The primary keys of the models which should be retrieved.
+     * @param chunkSize Maximum number of keys per query.
+     * @param executor  The executor running the queries of the chunks.
+     * @return The found models by their primary key, in the order of the given keys.
+     */
+    public Map<PK, T> readAll(Collection<PK> ids, int chunkSize, Executor executor) {
+        try {
+            return readAllAsync(ids, chunkSize, executor).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
     }
 
@@ -113,46 +518,304 @@ public class GenericDAO<T, PK> {
 
     /**
      * Retrieves a iterator returning all models matching the given filter.
+     * Models are mapped one by one while iterating, the iterator holds the connection until it is closed.
      * <br>
-     * Be sure to call {@link DAOIterator#close()} after finishing the iterator.
+     * Be sure to call {@link DAOIterator#close()} when the iterator is not iterated to the end.
      *
      * @param filter The filter function which should be applied when executing the query.
      * @return An iterator for models matching the given filter.
      */
     public DAOIterator<T> read(Function<Table, ReqlExpr> filter) {
+        return openIterator(filter, this::mapTracked);
+    }
+
+    /**
+     * Retrieves only the fields of a projection of the model with the given primary key.
+     * See {@link #read(Function, Class)}.
+     *
+     * @param id         The primary key of the model which should be retrieved.
+     * @param projection A class containing a subset of the model fields.
+     * @return Maybe the projection of the model matching the given primary key.
+     */
+    public <P> Optional<P> read(PK id, Class<P> projection) {
+        try (DAOIterator<P> iterator = read(t -> t.getAll(id), projection)) {
+            return iterator.hasNext() ? Optional.of(iterator.next()) : Optional.empty();
+        } catch (IOException e) {
+            throw new ReqlDriverError("Failed to close cursor.", e);
+        }
+    }
+
+    /**
+     * Retrieves a iterator returning projections of all models matching the given filter.
+     * The fields of the projection class are plucked by the server, so only they are transferred and mapped.
+     * The field names are resolved like for models, so the projection may use the same mapping annotations.
+     * <br>
+     * Be sure to call {@link DAOIterator#close()} when the iterator is not iterated to the end.
+     *
+     * @param filter     The filter function which should be applied when executing the query.
+     * @param projection A class containing a subset of the model fields.
+     * @return An iterator for the projections of the models matching the given filter.
+     */
+    public <P> DAOIterator<P> read(Function<Table, ReqlExpr> filter, Class<P> projection) {
+        final Object[] fields = MAPPER.getPropertyNames(projection).toArray();
+        return openIterator(t -> filter.apply(t).pluck(fields), map -> MAPPER.map(map, projection));
+    }
+
+    /**
+     * Retrieves a page of models ordered by their primary key, see {@link #readPage(String, String, int)}.
+     *
+     * @param afterToken The token of the previous page, null for the first page.
+     * @param limit      Maximum number of models of the page.
+     * @return The page, containing the token of the next page.
+     */
+    public Page<T> readPage(String afterToken, int limit) {
+        return readPage(primaryKey, afterToken, limit);
+    }
+
+    /**
+     * Retrieves a page of models ordered by the given index. Pages are addressed by the position of the last model
+     * (keyset pagination), the server starts reading right behind it. So every page costs the same, no matter
+     * how deep it is. Models sharing the same index value are ordered by their primary key.
+     * <br>
+     * Models changed between two pages may be skipped or returned twice, when their index value changed.
+     *
+     * @param index      The primary key or the name of an index added to this DAO, geo indices can not be used.
+     * @param afterToken The token of the previous page, null for the first page.
+     * @param limit      Maximum number of models of the page.
+     * @return The page, containing the token of the next page.
+     * @throws ReqlClientError Thrown when the index is unknown or the token is malformed or belongs to another index.
+     */
+    public Page<T> readPage(String index, String afterToken, int limit) {
+        if (limit < 1) {
+            throw new ReqlClientError("Constraint violated: limit >= 1");
+        }
+
+        final boolean primary = index.equals(primaryKey);
+        final String[] fields = primary ? new String[]{primaryKey} : getIndexFields(index);
+        final PageToken after = afterToken != null ? PageToken.decode(afterToken) : null;
+        if (after != null && !after.getIndex().equals(index)) {
+            throw new ReqlClientError("Page token belongs to index %s.", after.getIndex());
+        }
+
+        final Table table = R.table(tableName);
+        final ReqlExpr query;
+        if (after == null) {
+            query = table.orderBy().optArg("index", index);
+        } else if (primary) {
+            query = table.between(after.getPrimaryKey(), R.maxval())
+                    .optArg("index", index).optArg("left_bound", "open")
+                    .orderBy().optArg("index", index);
+        } else {
+            // Continue at the index value of the last model, but skip models with the same value which were already returned.
+            query = table.between(after.getIndexValue(), R.maxval())
+                    .optArg("index", index)
+                    .orderBy().optArg("index", index)
+                    .filter(row -> R.expr(indexFieldsToReQL(row, fields)).ne(after.getIndexValue())
+                            .or(row.g(primaryKey).gt(after.getPrimaryKey())));
+        }
+
         try (Connection connection = connectionProvider.get()) {
-            final Table table = R.table(tableName);
-            Object result = filter.apply(table).run(connection);
-            if (result instanceof List) {
-                List<T> list = ((List<?>) result).stream()
-                        .map(map -> MAPPER.map((Map) map, clazz))
-                        .collect(Collectors.toList());
-                return new DAOIterator<>(list.iterator(), clazz, MAPPER);
-            } else if (result instanceof Map) {
-                return new DAOIterator<>(Lists.newArrayList(result).iterator(), clazz, MAPPER);
-            } else if (result instanceof Cursor) {
-                Cursor<?> cursor = (Cursor<?>) result;
-                return new DAOIterator<>(cursor, clazz, MAPPER);
-            } else {
-                throw new ReqlInternalError("Unknown return type for query: " + result.getClass());
+            final List<Map<?, ?>> documents = toList(query.limit(limit + 1).run(connection));
+            final List<T> items = documents.stream()
+                    .limit(limit)
+                    .map(this::mapTracked)
+                    .collect(Collectors.toList());
+
+            String nextToken = null;
+            if (documents.size() > limit) {
+                final Map<?, ?> last = documents.get(limit - 1);
+                final Object indexValue = primary
+                        ? last.get(primaryKey)
+                        : Arrays.stream(fields).map(last::get).collect(Collectors.toList());
+                nextToken = new PageToken(index, indexValue, last.get(primaryKey)).encode();
             }
+            return new Page<>(items, nextToken);
         }
     }
 
     /**
-     * Updates a model.
+     * Emits all models in the table, see {@link #observe(Function)}.
+     *
+     * @return An {@link Observable} emitting all models of the table.
+     */
+    public Observable<T> observe() {
+        return observe(t -> t);
+    }
+
+    /**
+     * Emits all models matching the given filter. The query is run when subscribing, documents are only fetched
+     * from the cursor and mapped when they are requested downstream, so large results are processed with bounded memory.
+     * <br>
+     * The cursor is closed and the connection is released when the stream completes, fails or is unsubscribed.
+     * Every subscription runs its own query.
+     *
+     * @param filter The filter function which should be applied when executing the query.
+     * @return An {@link Observable} emitting the models matching the given filter.
+     */
+    public Observable<T> observe(Function<Table, ReqlExpr> filter) {
+        return Observable.using(
+                () -> openIterator(filter, this::mapTracked),
+                iterator -> Observable.from(() -> iterator),
+                iterator -> {
+                    try {
+                        iterator.close();
+                    } catch (IOException e) {
+                        LOGGER.warn("Failed to close cursor.", e);
+                    }
+                });
+    }
+
+    /**
+     * Counts all models in the table.
+     *
+     * @return The number of models.
+     */
+    public long count() {
+        return count(t -> t);
+    }
+
+    /**
+     * Counts the models matching the filter on the server, the models are not transferred.
+     *
+     * @param filter The filter selecting the models which should be counted.
+     * @return The number of matching models.
+     */
+    public long count(Function<Table, ReqlExpr> filter) {
+        return aggregate(filter, Aggregation.count()).orElse(0L);
+    }
+
+    /**
+     * Checks whether a model with the given primary key exists, the model is not transferred.
+     *
+     * @param id The primary key of the model.
+     * @return True if the model exists.
+     */
+    public boolean exists(PK id) {
+        try (Connection connection = connectionProvider.get()) {
+            return R.table(tableName).get(id).ne((Object) null).run(connection);
+        }
+    }
+
+    /**
+     * Sums up a numeric field of the models matching the filter on the server.
+     *
+     * @param field  The field which should be summed up, models without the field are skipped.
+     * @param filter The filter selecting the models.
+     * @return The sum, 0 when no model matches.
+     */
+    public double sum(String field, Function<Table, ReqlExpr> filter) {
+        return aggregate(filter, Aggregation.sum(field)).orElse(0.0);
+    }
+
+    /**
+     * Averages a numeric field of the models matching the filter on the server.
+     *
+     * @param field  The field which should be averaged, models without the field are skipped.
+     * @param filter The filter selecting the models.
+     * @return The average, empty when no model has the field.
+     */
+    public Optional<Double> avg(String field, Function<Table, ReqlExpr> filter) {
+        return aggregate(filter, Aggregation.avg(field));
+    }
+
+    /**
+     * Determines the minimum of a numeric field of the models matching the filter on the server.
+     *
+     * @param field  The field, models without the field are skipped.
+     * @param filter The filter selecting the models.
+     * @return The minimum, empty when no model has the field.
+     */
+    public Optional<Double> min(String field, Function<Table, ReqlExpr> filter) {
+        return aggregate(filter, Aggregation.min(field));
+    }
+
+    /**
+     * Determines the maximum of a numeric field of the models matching the filter on the server.
+     *
+     * @param field  The field, models without the field are skipped.
+     * @param filter The filter selecting the models.
+     * @return The maximum, empty when no model has the field.
+     */
+    public Optional<Double> max(String field, Function<Table, ReqlExpr> filter) {
+        return aggregate(filter, Aggregation.max(field));
+    }
+
+    /**
+     * Reduces the models matching the filter on the server, only the result is transferred.
+     *
+     * @param filter      The filter selecting the models.
+     * @param aggregation The reduction, e.g. {@link Aggregation#sum(String)}.
+     * @return The result, empty when there was nothing to reduce.
+     */
+    public <V> Optional<V> aggregate(Function<Table, ReqlExpr> filter, Aggregation<V> aggregation) {
+        try (Connection connection = connectionProvider.get()) {
+            // Reducing an empty selection is a non-existence error, which default turns into null.
+            Object result = aggregation.reduce(filter.apply(R.table(tableName))).default_((Object) null).run(connection);
+            return Optional.ofNullable(result).map(aggregation::convert);
+        }
+    }
+
+    /**
+     * Groups all models by a field and reduces every group, see {@link #groupBy(Function, String, Aggregation)}.
+     *
+     * @param field       The field whose values form the groups.
+     * @param aggregation The reduction applied to every group.
+     * @return The result of every group by the group value.
+     */
+    public <V> Map<Object, V> groupBy(String field, Aggregation<V> aggregation) {
+        return groupBy(t -> t, field, aggregation);
+    }
+
+    /**
+     * Groups the models matching the filter by a field and reduces every group on the server.
+     * Only the group values and their results are transferred.
+     * <br>
+     * Note: Minimum, maximum and average fail when a group contains no model with the reduced field.
+     *
+     * @param filter      The filter selecting the models.
+     * @param field       The field whose values form the groups.
+     * @param aggregation The reduction applied to every group, e.g. {@link Aggregation#count()}.
+     * @return The result of every group by the group value, ordered by the group value.
+     */
+    public <V> Map<Object, V> groupBy(Function<Table, ReqlExpr> filter, String field, Aggregation<V> aggregation) {
+        try (Connection connection = connectionProvider.get()) {
+            final ReqlExpr groups = aggregation.reduce(filter.apply(R.table(tableName)).group(field)).ungroup();
+            final Map<Object, V> result = new LinkedHashMap<>();
+            for (Map<?, ?> group : toList(groups.run(connection))) {
+                result.put(group.get("group"), aggregation.convert(group.get("reduction")));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Updates a model. When change tracking is enabled only the changed fields are sent,
+     * see {@link #setChangeTracking(boolean)}.
      *
      * @param id    The id of the model which should be updated.
      * @param model The model which should be updated.
      */
     public void update(PK id, T model) {
+        Map<?, ?> map = MAPPER.map(model);
+        Map<?, ?> changes = map;
+        if (changeTracker != null) {
+            final Optional<Map<?, ?>> snapshot = changeTracker.getSnapshot(model);
+            if (snapshot.isPresent()) {
+                changes = ChangeTracker.diff(snapshot.get(), map);
+                if (changes.isEmpty()) {
+                    return;
+                }
+            }
+        }
+
         try (Connection connection = connectionProvider.get()) {
-            Map<?, ?> map = MAPPER.map(model);
-            Map<String, ?> result = R.table(tableName).get(id).update(map).run(connection);
+            Map<String, ?> result = R.table(tableName).get(id).update(changes).run(connection);
+            invalidate(id);
 
             if (((Long) result.get("errors")) > 0) {
                 throw new ReqlClientError("Failed to update model. %s", ((String) result.get("first_error")).split("\n")[0]);
             }
+            track(model, map);
         }
     }
 
@@ -166,6 +829,7 @@ public class GenericDAO<T, PK> {
     public void updateNonAtomic(PK id, T model) {
         try (Connection connection = connectionProvider.get()) {
             R.table(tableName).get(id).update(model).run(connection, OptArgs.of("non_atomic", true));
+            invalidate(id);
         }
     }
 
@@ -177,7 +841,133 @@ public class GenericDAO<T, PK> {
     public void delete(PK id) {
         try (Connection connection = connectionProvider.get()) {
             R.table(tableName).get(id).delete().run(connection);
+            invalidate(id);
+        }
+    }
+
+    /**
+     * Deletes all models with the given primary keys, see {@link #deleteAll(Collection, int)}.
+     *
+     * @param ids The primary keys of the models which should be removed.
+     * @return The summary of all deletes.
+     */
+    public WriteResult deleteAll(Collection<PK> ids) {
+        return deleteAll(ids, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Deletes all models with the given primary keys. The keys are split into chunks, every chunk is deleted
+     * with a single query. All chunks are deleted on the same connection.
+     *
+     * @param ids       The primary keys of the models which should be removed.
+     * @param chunkSize Maximum number of keys per query.
+     * @return The summary of all deletes.
+     */
+    public WriteResult deleteAll(Collection<PK> ids, int chunkSize) {
+        WriteResult summary = new WriteResult(0, 0, 0, 0, 0, 0, null);
+        try (Connection connection = connectionProvider.get()) {
+            for (List<PK> chunk : chunk(ids, chunkSize)) {
+                Map<String, ?> result = R.table(tableName).getAll(chunk.toArray()).delete().run(connection);
+                chunk.forEach(this::invalidate);
+                summary = summary.merge(toWriteResult(result));
+            }
         }
+        return summary;
+    }
+
+    /**
+     * Deletes all models matching the filter with a single server side query.
+     * The deleted models are not returned.
+     *
+     * @param filter The filter selecting the models which should be removed.
+     * @return The summary of the delete.
+     */
+    public WriteResult deleteWhere(Function<Table, ReqlExpr> filter) {
+        try (Connection connection = connectionProvider.get()) {
+            Map<String, ?> result = filter.apply(R.table(tableName)).delete().run(connection);
+            invalidateAll();
+            return toWriteResult(result);
+        }
+    }
+
+    /**
+     * Updates all models matching the filter with a single server side query.
+     * Only the fields of the partial model which are not null are written, nested objects are merged.
+     * The updated models are not returned.
+     *
+     * @param filter  The filter selecting the models which should be updated.
+     * @param partial The model containing the fields which should be written.
+     * @return The summary of the update.
+     */
+    public WriteResult updateWhere(Function<Table, ReqlExpr> filter, T partial) {
+        try (Connection connection = connectionProvider.get()) {
+            Map<?, ?> map = MAPPER.mapPartial(partial);
+            Map<String, ?> result = filter.apply(R.table(tableName)).update(map).run(connection);
+            invalidateAll();
+            return toWriteResult(result);
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #create(Object)}, the query is run by the executor of this DAO.
+     *
+     * @param model Model which should be created.
+     * @return A future completed when the model was created.
+     */
+    public CompletableFuture<Void> createAsync(T model) {
+        return CompletableFuture.runAsync(() -> create(model), executor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #save(Object)}, the query is run by the executor of this DAO.
+     *
+     * @param model Model which should be saved.
+     * @return A future completed with the summary of the write.
+     */
+    public CompletableFuture<WriteResult> saveAsync(T model) {
+        return CompletableFuture.supplyAsync(() -> save(model), executor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #read(Object)}, the query is run by the executor of this DAO.
+     *
+     * @param id The primary key of the model which should be retrieved.
+     * @return A future completed with maybe the model matching the given primary key.
+     */
+    public CompletableFuture<Optional<T>> readAsync(PK id) {
+        return CompletableFuture.supplyAsync(() -> read(id), executor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #readAll(Collection)}, the chunks are read in parallel
+     * by the executor of this DAO.
+     *
+     * @param ids The primary keys of the models which should be retrieved.
+     * @return A future completed with the found models by their primary key, in the order of the given keys.
+     */
+    public CompletableFuture<Map<PK, T>> readAllAsync(Collection<PK> ids) {
+        return readAllAsync(ids, DEFAULT_CHUNK_SIZE, executor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #update(Object, Object)}, the query is run by the executor of this DAO.
+     *
+     * @param id    The id of the model which should be updated.
+     * @param model The model which should be updated.
+     * @return A future completed when the model was updated.
+     */
+    public CompletableFuture<Void> updateAsync(PK id, T model) {
+        return CompletableFuture.runAsync(() -> update(id, model), executor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #delete(Object)}, the query is run by the executor of this DAO.
+     *
+     * @param id The primary key of the model which should be removed.
+     * @return A future completed when the model was removed.
+     */
+    public CompletableFuture<Void> deleteAsync(PK id) {
+        return CompletableFuture.runAsync(() -> delete(id), executor);
     }
 
     /**
@@ -197,16 +987,23 @@ public class GenericDAO<T, PK> {
      */
     @SuppressWarnings("unchecked")
     public Observable<ChangeFeedElement<T>> changes(Function<Table, ReqlExpr> filter) {
+        return feed(filter, false).map(this::mapChangeFeedElement);
+    }
+
+    /**
+     * @param includeStates Whether the state documents of the feed should be emitted, e.g. <code>{state: "ready"}</code>
+     *                      when the feed is set up. See <a href="https://rethinkdb.com/api/java/changes/">changes</a>.
+     */
+    private Observable<Map<?, Map<?, ?>>> feed(Function<Table, ReqlExpr> filter, boolean includeStates) {
         return Observable.create(subscriber -> {
             Cursor<Map<?, Map<?, ?>>> cursor = null;
-            try (Connection connection = connectionProvider.get()) {
+            try (Connection connection = feedConnectionProvider.get()) {
                 final Table table = R.table(tableName);
-                cursor = filter.apply(table).changes().run(connection);
+                final Changes changes = filter.apply(table).changes();
+                cursor = (includeStates ? changes.optArg("include_states", true) : changes).run(connection);
 
                 while (!subscriber.isUnsubscribed()) {
-                    Map<?, Map<?, ?>> map = cursor.next();
-                    ChangeFeedElement<T> change = mapChangeFeedElement(map);
-                    subscriber.onNext(change);
+                    subscriber.onNext(cursor.next());
                 }
             } catch (ReqlDriverError e) {
                 if (e.getCause() instanceof InterruptedException) {
@@ -223,6 +1020,266 @@ public class GenericDAO<T, PK> {
         });
     }
 
+    private static Executor newDefaultExecutor(String tableName) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_ASYNC_THREADS, DEFAULT_ASYNC_THREADS,
+                ASYNC_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new DaemonThreadFactory("rethinkdb-dao-" + tableName + "-"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private CompletableFuture<Map<PK, T>> readAllAsync(Collection<PK> ids, int chunkSize, Executor executor) {
+        final List<CompletableFuture<Map<Object, T>>> futures = chunk(ids, chunkSize).stream()
+                .map(chunk -> CompletableFuture.supplyAsync(() -> {
+                    try (Connection connection = connectionProvider.get()) {
+                        return readChunk(connection, chunk);
+                    }
+                }, executor))
+                .collect(Collectors.toList());
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            final Map<Object, T> found = new HashMap<>();
+            futures.forEach(f -> found.putAll(f.join()));
+            return orderByKeys(ids, found);
+        });
+    }
+
+    /**
+     * Runs the query on a new connection, the returned iterator owns the connection and releases it when closed.
+     */
+    private <M> DAOIterator<M> openIterator(Function<Table, ReqlExpr> query, Function<Map<?, ?>, M> mapping) {
+        final Connection connection = connectionProvider.get();
+        try {
+            final Object result = query.apply(R.table(tableName)).run(connection);
+            if (result instanceof Cursor) {
+                final Cursor<?> cursor = (Cursor<?>) result;
+                return new DAOIterator<>(cursor, Optional.of(() -> {
+                    try {
+                        cursor.close();
+                    } finally {
+                        connection.close();
+                    }
+                }), mapping);
+            }
+
+            connection.close();
+            if (result instanceof List) {
+                return new DAOIterator<>(((List<?>) result).iterator(), Optional.empty(), mapping);
+            } else if (result instanceof Map) {
+                return new DAOIterator<>(Collections.singletonList(result).iterator(), Optional.empty(), mapping);
+            } else {
+                throw new ReqlInternalError("Unknown return type for query: " + result.getClass());
+            }
+        } catch (RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private String[] getIndexFields(String index) {
+        return indices.stream()
+                .filter(i -> !i.isGeo() && Joiner.on("_").join(i.getFields()).equals(index))
+                .findFirst()
+                .map(IndexModel::getFields)
+                .orElseThrow(() -> new ReqlClientError("Unknown index %s, only indices added to the model can be used.", index));
+    }
+
+    /**
+     * @return All documents of the result, a cursor is drained and closed.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Map<?, ?>> toList(Object result) {
+        if (result instanceof Cursor) {
+            final Cursor<Map<?, ?>> cursor = (Cursor<Map<?, ?>>) result;
+            try {
+                final List<Map<?, ?>> documents = new ArrayList<>();
+                cursor.forEachRemaining(documents::add);
+                return documents;
+            } finally {
+                cursor.close();
+            }
+        }
+        return (List<Map<?, ?>>) result;
+    }
+
+    private Map<?, ?> load(Object id) {
+        try (Connection connection = connectionProvider.get()) {
+            return R.table(tableName).get(id).run(connection);
+        }
+    }
+
+    private List<Map<?, ?>> loadAll(List<Object> ids) {
+        try (Connection connection = connectionProvider.get()) {
+            return toList(R.table(tableName).getAll(ids.toArray()).run(connection));
+        }
+    }
+
+    /**
+     * Evicts a model written by this DAO from the cache.
+     */
+    private void invalidate(Object id) {
+        if (cache != null) {
+            cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Clears the cache after a write whose models are not known, e.g. {@link #deleteWhere(Function)}.
+     */
+    private void invalidateAll() {
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Maps a database document to a model, which is tracked when change tracking is enabled.
+     */
+    private T mapTracked(Map<?, ?> map) {
+        final T model = MAPPER.map(map, clazz);
+        if (changeTracker != null && model != null) {
+            // The snapshot has to be mapped from the model, so it can be compared with later mappings.
+            changeTracker.track(model, MAPPER.map(model));
+        }
+        return model;
+    }
+
+    private void track(T model, Map<?, ?> map) {
+        if (changeTracker != null) {
+            changeTracker.track(model, map);
+        }
+    }
+
+    private List<List<PK>> chunk(Collection<PK> ids, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new ReqlClientError("Constraint violated: chunkSize >= 1");
+        }
+        return Lists.partition(new ArrayList<>(new LinkedHashSet<>(ids)), chunkSize);
+    }
+
+    /**
+     * @return The found models by their normalized primary key.
+     */
+    private Map<Object, T> readChunk(Connection connection, List<PK> ids) {
+        final Object result = R.table(tableName).getAll(ids.toArray()).run(connection);
+        final Iterator<?> iterator = result instanceof Cursor ? (Cursor<?>) result : ((List<?>) result).iterator();
+        final Map<Object, T> found = new HashMap<>();
+        try {
+            while (iterator.hasNext()) {
+                final Map<?, ?> map = (Map<?, ?>) iterator.next();
+                found.put(normalizeKey(map.get(primaryKey)), mapTracked(map));
+            }
+        } finally {
+            if (result instanceof Cursor) {
+                ((Cursor<?>) result).close();
+            }
+        }
+        return found;
+    }
+
+    private Map<PK, T> orderByKeys(Collection<PK> ids, Map<Object, T> found) {
+        final Map<PK, T> models = new LinkedHashMap<>();
+        for (PK id : ids) {
+            final T model = found.get(normalizeKey(id));
+            if (model != null) {
+                models.put(id, model);
+            }
+        }
+        return models;
+    }
+
+    /**
+     * Primary keys returned by RethinkDB might have another type than the requested ones,
+     * e.g. numbers are returned as Long or Double and UUIDs as String.
+     * Integral numbers are compared as Long, so keys above 2^53 do not collapse into the same Double.
+     */
+    static Object normalizeKey(Object key) {
+        if (key instanceof Double || key instanceof Float || key instanceof BigDecimal) {
+            final double value = ((Number) key).doubleValue();
+            if (value == Math.rint(value) && Math.abs(value) < 0x1p63) {
+                return (long) value;
+            }
+            return value;
+        }
+        return key instanceof Number ? (Object) ((Number) key).longValue() : String.valueOf(key);
+    }
+
+    private List<BulkWriteResult> insertAll(Iterator<T> models, int chunkSize, long chunkBytes, ConflictStrategy conflict) {
+        return insertDocuments(Iterators.transform(models, this::mapDocument), chunkSize, chunkBytes, conflict);
+    }
+
+    /**
+     * Maps a model to the document which is inserted. A primary key which is not set is omitted,
+     * so RethinkDB generates a new one instead of rejecting the null key.
+     */
+    private Map<?, ?> mapDocument(T model) {
+        final Map<?, ?> map = MAPPER.map(model);
+        if (map.get(primaryKey) == null) {
+            map.remove(primaryKey);
+        }
+        return map;
+    }
+
+    private List<BulkWriteResult> insertDocuments(Iterator<? extends Map<?, ?>> documents, int chunkSize, long chunkBytes,
+                                                  ConflictStrategy conflict) {
+        if (chunkSize < 1) {
+            throw new ReqlClientError("Constraint violated: chunkSize >= 1");
+        }
+
+        final List<BulkWriteResult> results = new ArrayList<>();
+        try (Connection connection = connectionProvider.get()) {
+            final List<Map<?, ?>> chunk = new ArrayList<>();
+            long offset = 0;
+            long bytes = 0;
+            while (documents.hasNext()) {
+                final Map<?, ?> map = documents.next();
+                final long size = MAPPER.estimateSize(map);
+                if (!chunk.isEmpty() && (chunk.size() >= chunkSize || bytes + size > chunkBytes)) {
+                    results.add(insertChunk(connection, chunk, offset, conflict));
+                    offset += chunk.size();
+                    chunk.clear();
+                    bytes = 0;
+                }
+                chunk.add(map);
+                bytes += size;
+            }
+            if (!chunk.isEmpty()) {
+                results.add(insertChunk(connection, chunk, offset, conflict));
+            }
+        }
+        return results;
+    }
+
+    private Insert insert(Object documents, ConflictStrategy conflict) {
+        final Insert insert = R.table(tableName).insert(documents);
+        // Error is the default of RethinkDB, so plain inserts are sent unchanged.
+        return conflict == ConflictStrategy.ERROR ? insert : insert.optArg("conflict", conflict.getValue());
+    }
+
+    private BulkWriteResult insertChunk(Connection connection, List<Map<?, ?>> chunk, long offset,
+                                        ConflictStrategy conflict) {
+        Map<String, ?> result = insert(chunk, conflict).run(connection);
+        // Documents without a primary key get a new one, so they can not be cached yet.
+        chunk.stream().filter(map -> map.containsKey(primaryKey)).forEach(map -> invalidate(map.get(primaryKey)));
+        return new BulkWriteResult(offset, chunk.size(), toWriteResult(result));
+    }
+
+    private static WriteResult toWriteResult(Map<String, ?> result) {
+        return new WriteResult(
+                getCount(result, "inserted"),
+                getCount(result, "replaced"),
+                getCount(result, "unchanged"),
+                getCount(result, "deleted"),
+                getCount(result, "skipped"),
+                getCount(result, "errors"),
+                (String) result.get("first_error"));
+    }
+
+    private static long getCount(Map<String, ?> result, String key) {
+        final Object count = result.get(key);
+        return count instanceof Number ? ((Number) count).longValue() : 0;
+    }
+
     private boolean hasTable(Connection connection, String table) {
         List<String> tables = R.tableList().run(connection);
         return tables.contains(table);
@@ -2,18 +2,25 @@ package de.jakobjarosch.rethinkdb.orm.dao;
 
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import de.jakobjarosch.rethinkdb.orm.model.geo.ReqlGeo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 class ModelMapper {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ModelMapper.class);
 
     private final ObjectMapper mapper;
+    private final Map<Class<?>, List<String>> propertyNames = new ConcurrentHashMap<>();
 
     public ModelMapper() {
         mapper = new ObjectMapper();
@@ -32,6 +39,19 @@ class ModelMapper {
         return map;
     }
 
+    /**
+     * Maps a partial object to a RethinkDB ready map, fields which are null are omitted.
+     * Nested objects are treated the same way, so they can be merged by an update.
+     *
+     * @param obj Object which should be converted.
+     * @return A RethinkDB ready map which contains only the non null fields.
+     */
+    public Map<?, ?> mapPartial(Object obj) {
+        Map<?, ?> map = map(obj);
+        removeNullValues(map);
+        return map;
+    }
+
     /**
      * Converts a RethinkDB response into a given Model.
      *
@@ -43,6 +63,55 @@ class ModelMapper {
         return mapper.convertValue(map, clazz);
     }
 
+    /**
+     * @param clazz The class of a model or of a projection of it.
+     * @return The names of all properties of the class, as they are named in the database.
+     */
+    public List<String> getPropertyNames(Class<?> clazz) {
+        return propertyNames.computeIfAbsent(clazz, c ->
+                mapper.getDeserializationConfig().introspect(mapper.constructType(c)).findProperties().stream()
+                        .map(BeanPropertyDefinition::getName)
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * Estimates the size of a mapped model when serialized to JSON, without serializing it.
+     *
+     * @param value A map returned by {@link #map(Object)} or any of its values.
+     * @return The estimated size in bytes.
+     */
+    public long estimateSize(Object value) {
+        if (value == null) {
+            return 4;
+        } else if (value instanceof CharSequence) {
+            return ((CharSequence) value).length() + 2;
+        } else if (value instanceof Number || value instanceof Boolean) {
+            return 8;
+        } else if (value instanceof Map) {
+            long size = 2;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += estimateSize(String.valueOf(entry.getKey())) + estimateSize(entry.getValue()) + 2;
+            }
+            return size;
+        } else if (value instanceof Collection) {
+            long size = 2;
+            for (Object element : (Collection<?>) value) {
+                size += estimateSize(element) + 1;
+            }
+            return size;
+        } else {
+            // E.g. ReqlGeo terms, which are only serialized by the driver.
+            return 64;
+        }
+    }
+
+    private void removeNullValues(Map<?, ?> map) {
+        map.values().removeIf(Objects::isNull);
+        map.values().stream()
+                .filter(v -> v instanceof Map)
+                .forEach(v -> removeNullValues((Map<?, ?>) v));
+    }
+
     /**
      * The method reconstructs all previous {@link ReqlGeo} instances back from their serialized representation.
      * Those instances are required, otherwise RethinkDB would not store coordinates in the correct data type.
@@ -0,0 +1,206 @@
+package de.jakobjarosch.rethinkdb.orm.dao;
+
+import com.rethinkdb.RethinkDB;
+import com.rethinkdb.ast.ReqlAst;
+import com.rethinkdb.gen.exc.ReqlDriverError;
+import com.rethinkdb.gen.exc.ReqlError;
+import com.rethinkdb.net.Connection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Provider;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Sends writes without waiting for their response (<a href="https://rethinkdb.com/api/java/run_noreply/">runNoReply</a>),
+ * so writes are pipelined on a single connection and do not cost a round trip each.
+ * <br>
+ * The server does not report the result of a noreply write. Whether the writes have been processed is only known
+ * after a <a href="https://rethinkdb.com/api/java/noreply_wait/">noreplyWait</a> barrier, which is sent after a number
+ * of writes, when the sync interval elapsed on a write, on {@link #sync()} and on {@link #close()}.
+ * Writes which could not be sent or whose barrier failed are counted as failed, they might be lost.
+ * Errors of single writes, e.g. a duplicate primary key, are never reported.
+ * <br>
+ * The writer holds a connection until it is closed. It is thread safe, but writes of all threads share the connection.
+ */
+public class NoReplyWriter<T, PK> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NoReplyWriter.class);
+
+    private static final RethinkDB R = RethinkDB.r;
+
+    private final Provider<Connection> connectionProvider;
+    private final String tableName;
+    private final String primaryKey;
+    private final Function<T, Map<?, ?>> mapping;
+    private final Consumer<Object> written;
+    private final int syncWrites;
+    private final long syncIntervalMillis;
+
+    private final AtomicLong pendingWrites = new AtomicLong();
+    private final AtomicLong confirmedWrites = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+
+    private Connection connection;
+    private long lastSync = System.currentTimeMillis();
+    private boolean closed = false;
+
+    /**
+     * @param connectionProvider Provides the connection of the writer.
+     * @param tableName          The name of the table.
+     * @param primaryKey         The name of the primary key field.
+     * @param mapping            Maps a model to a database document, an unset primary key is omitted.
+     * @param written            Called with the primary key of every model which was sent, e.g. to evict it from a cache.
+     * @param syncWrites         Number of writes after which a barrier is sent.
+     * @param syncIntervalMillis Time after which a write sends a barrier.
+     */
+    NoReplyWriter(Provider<Connection> connectionProvider, String tableName, String primaryKey,
+                  Function<T, Map<?, ?>> mapping, Consumer<Object> written, int syncWrites, long syncIntervalMillis) {
+        this.connectionProvider = connectionProvider;
+        this.tableName = tableName;
+        this.primaryKey = primaryKey;
+        this.mapping = mapping;
+        this.written = written;
+        this.syncWrites = syncWrites;
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    /**
+     * Sends the creation of a model.
+     *
+     * @param model Model which should be created.
+     */
+    public void create(T model) {
+        final Map<?, ?> document = mapping.apply(model);
+        write(R.table(tableName).insert(document), document.get(primaryKey));
+    }
+
+    /**
+     * Sends the update of a model.
+     *
+     * @param id    The id of the model which should be updated.
+     * @param model The model which should be updated.
+     */
+    public void update(PK id, T model) {
+        write(R.table(tableName).get(id).update(mapping.apply(model)), id);
+    }
+
+    /**
+     * Sends the deletion of a model.
+     *
+     * @param id The primary key of the model which should be removed.
+     */
+    public void delete(PK id) {
+        write(R.table(tableName).get(id).delete(), id);
+    }
+
+    /**
+     * Waits until the server processed all writes sent so far.
+     *
+     * @throws ReqlDriverError When the barrier failed, the pending writes are counted as failed.
+     */
+    public synchronized void sync() {
+        if (!barrier()) {
+            throw new ReqlDriverError("Failed to wait for noreply writes, pending writes might be lost.");
+        }
+    }
+
+    /**
+     * @return Number of writes sent since the last barrier.
+     */
+    public long getPendingWrites() {
+        return pendingWrites.get();
+    }
+
+    /**
+     * @return Number of writes which have been processed by the server.
+     */
+    public long getConfirmedWrites() {
+        return confirmedWrites.get();
+    }
+
+    /**
+     * @return Number of writes which could not be sent or whose barrier failed.
+     */
+    public long getFailedWrites() {
+        return failedWrites.get();
+    }
+
+    /**
+     * Waits for all pending writes and returns the connection. A failing barrier is logged and counted.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            barrier();
+            closed = true;
+            releaseConnection();
+        }
+    }
+
+    /**
+     * @param id The primary key of the written model, null when a new one is generated.
+     */
+    private synchronized void write(ReqlAst query, Object id) {
+        if (closed) {
+            throw new ReqlDriverError("Writer is already closed.");
+        }
+
+        try {
+            if (connection == null) {
+                connection = connectionProvider.get();
+            }
+            query.runNoReply(connection);
+            pendingWrites.incrementAndGet();
+            if (id != null) {
+                written.accept(id);
+            }
+        } catch (ReqlError e) {
+            LOGGER.warn("Failed to send noreply write on table {}.", tableName, e);
+            failedWrites.incrementAndGet();
+            // The pending writes were sent on the broken connection, their barrier can not succeed anymore.
+            failedWrites.addAndGet(pendingWrites.getAndSet(0));
+            releaseConnection();
+            return;
+        }
+
+        if (pendingWrites.get() >= syncWrites || System.currentTimeMillis() - lastSync >= syncIntervalMillis) {
+            barrier();
+        }
+    }
+
+    /**
+     * @return False if the barrier failed.
+     */
+    private boolean barrier() {
+        lastSync = System.currentTimeMillis();
+        if (connection == null) {
+            return true;
+        }
+
+        try {
+            connection.noreplyWait();
+            confirmedWrites.addAndGet(pendingWrites.getAndSet(0));
+            return true;
+        } catch (ReqlError e) {
+            LOGGER.warn("Failed to wait for noreply writes on table {}.", tableName, e);
+            failedWrites.addAndGet(pendingWrites.getAndSet(0));
+            releaseConnection();
+            return false;
+        }
+    }
+
+    private void releaseConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (ReqlError e) {
+                LOGGER.warn("Failed to close connection.", e);
+            }
+            connection = null;
+        }
+    }
+}
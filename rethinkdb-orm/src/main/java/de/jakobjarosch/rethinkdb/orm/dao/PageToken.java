@@ -0,0 +1,116 @@
+package de.jakobjarosch.rethinkdb.orm.dao;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rethinkdb.gen.exc.ReqlClientError;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The position behind the last model of a page. A token contains the index it was created for,
+ * the index value and the primary key of the last model, encoded as URL safe Base64 JSON.
+ * <br>
+ * Besides JSON values, times are supported as index values. They are encoded like the ReQL time pseudotype
+ * and decoded to {@link OffsetDateTime}, so the driver sends them as times again.
+ */
+class PageToken {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private static final String REQL_TYPE = "$reql_type$";
+    private static final String TIME = "TIME";
+    private static final String EPOCH_TIME = "epoch_time";
+    private static final String TIMEZONE = "timezone";
+
+    private final String index;
+    private final Object indexValue;
+    private final Object primaryKey;
+
+    PageToken(String index, Object indexValue, Object primaryKey) {
+        this.index = index;
+        this.indexValue = indexValue;
+        this.primaryKey = primaryKey;
+    }
+
+    String getIndex() {
+        return index;
+    }
+
+    Object getIndexValue() {
+        return indexValue;
+    }
+
+    Object getPrimaryKey() {
+        return primaryKey;
+    }
+
+    String encode() {
+        try {
+            final byte[] json = JSON.writeValueAsBytes(Arrays.asList(index, toJson(indexValue), toJson(primaryKey)));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(json);
+        } catch (IOException e) {
+            throw new ReqlClientError("Failed to encode page token: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * @param token A token created by {@link #encode()}.
+     * @return The decoded token.
+     * @throws ReqlClientError Thrown when the token is malformed.
+     */
+    static PageToken decode(String token) {
+        try {
+            final List<?> values = JSON.readValue(Base64.getUrlDecoder().decode(token), List.class);
+            if (values.size() != 3 || !(values.get(0) instanceof String)) {
+                throw new ReqlClientError("Malformed page token.");
+            }
+            return new PageToken((String) values.get(0), fromJson(values.get(1)), fromJson(values.get(2)));
+        } catch (IOException | IllegalArgumentException | DateTimeException e) {
+            throw new ReqlClientError("Malformed page token.");
+        }
+    }
+
+    /**
+     * @throws ReqlClientError Thrown when the value is neither a JSON value nor a time, e.g. binary data.
+     */
+    private static Object toJson(Object value) {
+        if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean) {
+            return value;
+        } else if (value instanceof List) {
+            return ((List<?>) value).stream().map(PageToken::toJson).collect(Collectors.toList());
+        } else if (value instanceof OffsetDateTime) {
+            final OffsetDateTime time = (OffsetDateTime) value;
+            final Map<String, Object> encoded = new LinkedHashMap<>();
+            encoded.put(REQL_TYPE, TIME);
+            // RethinkDB stores times with millisecond precision.
+            encoded.put(EPOCH_TIME, time.toInstant().toEpochMilli() / 1000.0);
+            encoded.put(TIMEZONE, time.getOffset().equals(ZoneOffset.UTC) ? "+00:00" : time.getOffset().getId());
+            return encoded;
+        }
+        throw new ReqlClientError("Index values of type %s can not be used for paging.", value.getClass().getName());
+    }
+
+    private static Object fromJson(Object value) {
+        if (value instanceof List) {
+            return ((List<?>) value).stream().map(PageToken::fromJson).collect(Collectors.toList());
+        } else if (value instanceof Map) {
+            final Map<?, ?> encoded = (Map<?, ?>) value;
+            if (!TIME.equals(encoded.get(REQL_TYPE)) || !(encoded.get(EPOCH_TIME) instanceof Number)
+                    || !(encoded.get(TIMEZONE) instanceof String)) {
+                throw new ReqlClientError("Malformed page token.");
+            }
+            final long epochMillis = Math.round(((Number) encoded.get(EPOCH_TIME)).doubleValue() * 1000);
+            return OffsetDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.of((String) encoded.get(TIMEZONE)));
+        }
+        return value;
+    }
+}
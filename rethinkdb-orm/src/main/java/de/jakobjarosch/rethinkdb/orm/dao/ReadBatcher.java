@@ -0,0 +1,172 @@
+package de.jakobjarosch.rethinkdb.orm.dao;
+
+import com.rethinkdb.gen.exc.ReqlDriverError;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Merges concurrent reads by primary key into a single <a href="https://rethinkdb.com/api/java/get_all/">getAll</a>.
+ * A batch is read when it contains the maximum number of keys or when the batch window elapsed after its first key.
+ * Concurrent reads of the same key share a single result while the key waits in a batch. Once its batch is being read,
+ * further reads of the key join the next batch, so they observe writes made after the batch was sent.
+ * <br>
+ * Batches whose window elapsed are read by threads of the batcher, never by the threads waiting for results.
+ * So the batcher can not deadlock a bounded executor whose threads all wait for a batch.
+ */
+class ReadBatcher {
+
+    private final String primaryKey;
+    private final Function<List<Object>, List<Map<?, ?>>> loader;
+    private final int maxBatchSize;
+    private final long windowMillis;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService dispatcher;
+
+    private final ConcurrentMap<Object, CompletableFuture<Map<?, ?>>> inFlight = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+
+    /**
+     * The keys of the batch which is not read yet, by their normalized key.
+     */
+    private Map<Object, Object> batch = new LinkedHashMap<>();
+    private boolean closed = false;
+
+    /**
+     * @param tableName    The name of the table, used to name the threads.
+     * @param primaryKey   The name of the primary key field.
+     * @param loader       Reads the documents with the given primary keys.
+     * @param maxBatchSize Maximum number of keys per batch.
+     * @param windowMillis Time a batch waits for further keys.
+     */
+    ReadBatcher(String tableName, String primaryKey, Function<List<Object>, List<Map<?, ?>>> loader,
+                int maxBatchSize, long windowMillis) {
+        this.primaryKey = primaryKey;
+        this.loader = loader;
+        this.maxBatchSize = maxBatchSize;
+        this.windowMillis = windowMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "rethinkdb-read-batcher-" + tableName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        // A slow batch must not delay the batches behind it, so every elapsed batch is read on its own thread.
+        this.dispatcher = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "rethinkdb-read-batcher-dispatch-" + tableName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reads a document with the next batch and waits for it.
+     *
+     * @param id The primary key of the document.
+     * @return The document, null when it does not exist.
+     */
+    Map<?, ?> get(Object id) {
+        final Object key = GenericDAO.normalizeKey(id);
+        final CompletableFuture<Map<?, ?>> future = new CompletableFuture<>();
+        final CompletableFuture<Map<?, ?>> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return join(existing);
+        }
+
+        Map<Object, Object> full = null;
+        synchronized (lock) {
+            if (closed) {
+                full = Collections.singletonMap(key, id);
+            } else {
+                batch.put(key, id);
+                if (batch.size() >= maxBatchSize) {
+                    full = batch;
+                    batch = new LinkedHashMap<>();
+                } else if (batch.size() == 1) {
+                    final Map<Object, Object> current = batch;
+                    scheduler.schedule(() -> dispatchWindow(current), windowMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        if (full != null) {
+            // The thread filling the batch reads it, it would wait for the result anyway.
+            dispatch(full);
+        }
+        return join(future);
+    }
+
+    /**
+     * Stops the timer, the pending batch is read right away.
+     */
+    void close() {
+        final Map<Object, Object> remaining;
+        synchronized (lock) {
+            closed = true;
+            remaining = batch;
+            batch = new LinkedHashMap<>();
+        }
+        scheduler.shutdown();
+        dispatcher.shutdown();
+        if (!remaining.isEmpty()) {
+            dispatch(remaining);
+        }
+    }
+
+    private void dispatchWindow(Map<Object, Object> current) {
+        synchronized (lock) {
+            // The batch might have been read already because it was full.
+            if (batch != current) {
+                return;
+            }
+            batch = new LinkedHashMap<>();
+        }
+        try {
+            dispatcher.execute(() -> dispatch(current));
+        } catch (RejectedExecutionException e) {
+            // The batcher was closed in the meantime, the timer thread reads the batch itself.
+            dispatch(current);
+        }
+    }
+
+    private void dispatch(Map<Object, Object> keys) {
+        // Removed before reading, so reads arriving from now on join the next batch instead of this one.
+        final Map<Object, CompletableFuture<Map<?, ?>>> futures = new HashMap<>();
+        keys.keySet().forEach(key -> futures.put(key, inFlight.remove(key)));
+
+        final Map<Object, Map<?, ?>> found = new HashMap<>();
+        try {
+            for (Map<?, ?> document : loader.apply(new ArrayList<>(keys.values()))) {
+                found.put(GenericDAO.normalizeKey(document.get(primaryKey)), document);
+            }
+        } catch (RuntimeException e) {
+            futures.values().forEach(future -> future.completeExceptionally(e));
+            return;
+        }
+        futures.forEach((key, future) -> future.complete(found.get(key)));
+    }
+
+    private static Map<?, ?> join(CompletableFuture<Map<?, ?>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ReqlDriverError("Failed to read batch.", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package de.jakobjarosch.rethinkdb.orm.dao;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+import rx.Subscription;
+import rx.schedulers.Schedulers;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Caches the documents read by primary key. The cache is kept coherent by a change feed on the table:
+ * a changed or deleted document is evicted and loaded again on its next read. Changes are not applied to the cache,
+ * because a change arriving late would overwrite a newer document loaded in the meantime.
+ * <br>
+ * The cache is only used while the change feed is ready. When the feed fails the cache is cleared and bypassed
+ * until the feed was subscribed again. Documents instead of models are cached, so every read returns a new model
+ * which can be modified by the caller.
+ */
+class ReadCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadCache.class);
+
+    static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final Cache<Object, Map<?, ?>> documents;
+    private final String primaryKey;
+    private final Subscription subscription;
+
+    /**
+     * Incremented on every change, a document loaded while the generation changed might be outdated.
+     */
+    private final AtomicLong generation = new AtomicLong();
+    private volatile boolean ready = false;
+
+    /**
+     * @param maximumSize Maximum number of cached documents, the least recently used ones are evicted first.
+     * @param ttlMillis   Time after which a cached document expires.
+     * @param primaryKey  The name of the primary key field.
+     * @param feed        The change feed of the table, including its state documents.
+     */
+    ReadCache(long maximumSize, long ttlMillis, String primaryKey, Observable<Map<?, Map<?, ?>>> feed) {
+        this.documents = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .build();
+        this.primaryKey = primaryKey;
+        this.subscription = feed
+                .subscribeOn(Schedulers.newThread())
+                .retryWhen(errors -> errors.flatMap(e -> {
+                    LOGGER.warn("Change feed of cache failed, cache is bypassed until the feed is restored.", e);
+                    invalidateAll();
+                    return Observable.timer(RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                }))
+                .subscribe(this::onChange, e -> LOGGER.error("Change feed of cache terminated.", e));
+    }
+
+    /**
+     * @param id     The primary key of the document.
+     * @param loader Loads the document from the database, returns null when it does not exist.
+     * @return The cached document or the loaded one, null when it does not exist.
+     */
+    Map<?, ?> get(Object id, Function<Object, Map<?, ?>> loader) {
+        if (!ready) {
+            return loader.apply(id);
+        }
+
+        final Object key = GenericDAO.normalizeKey(id);
+        final Map<?, ?> cached = documents.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final long loadedGeneration = generation.get();
+        final Map<?, ?> document = loader.apply(id);
+        if (document != null) {
+            documents.put(key, document);
+            // A change could have been missed while loading, the document is only kept when none occurred.
+            if (generation.get() != loadedGeneration || !ready) {
+                documents.invalidate(key);
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Evicts a document which was written by this process, so it is not read before its change arrives.
+     */
+    void invalidate(Object id) {
+        generation.incrementAndGet();
+        documents.invalidate(GenericDAO.normalizeKey(id));
+    }
+
+    /**
+     * Evicts all documents, e.g. after a write whose documents are not known. The cache stays ready.
+     */
+    void clear() {
+        generation.incrementAndGet();
+        documents.invalidateAll();
+    }
+
+    void close() {
+        subscription.unsubscribe();
+        invalidateAll();
+    }
+
+    private void invalidateAll() {
+        ready = false;
+        generation.incrementAndGet();
+        documents.invalidateAll();
+    }
+
+    private void onChange(Map<?, Map<?, ?>> change) {
+        if ("ready".equals(change.get("state"))) {
+            ready = true;
+            return;
+        }
+
+        final Map<?, ?> newValue = change.get("new_val");
+        final Map<?, ?> document = newValue != null ? newValue : change.get("old_val");
+        if (document == null) {
+            return;
+        }
+
+        generation.incrementAndGet();
+        documents.invalidate(GenericDAO.normalizeKey(document.get(primaryKey)));
+    }
+}
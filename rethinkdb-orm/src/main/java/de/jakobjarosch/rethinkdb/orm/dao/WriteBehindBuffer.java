@@ -0,0 +1,285 @@
+package de.jakobjarosch.rethinkdb.orm.dao;
+
+import com.rethinkdb.gen.exc.ReqlDriverError;
+import com.rethinkdb.gen.exc.ReqlError;
+import de.jakobjarosch.rethinkdb.orm.model.BulkWriteResult;
+import de.jakobjarosch.rethinkdb.orm.model.WriteResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Buffers updates of frequently written models (e.g. counters or last-seen timestamps) and writes them in batches.
+ * Only the latest state of every primary key is buffered: an update merges the non-null fields of the model
+ * into the buffered document of its key, nested objects are merged as well.
+ * <br>
+ * The buffer is flushed in the background when it contains enough models or when the flush interval elapsed.
+ * The documents are inserted in batches, an existing document is updated (<code>conflict: update</code>).
+ * When the buffer is full, updates of further keys block until a flush made room (backpressure).
+ * A flush which failed is retried with the next flush, documents rejected by the server are dropped and counted.
+ * <br>
+ * Note: Fields can not be removed through the buffer, because null fields are not written.
+ * Updates are visible to reads only after they were flushed.
+ */
+public class WriteBehindBuffer<T, PK> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+    private final String tableName;
+    private final String primaryKey;
+    private final Function<T, Map<?, ?>> mapping;
+    private final Function<List<Map<?, ?>>, List<BulkWriteResult>> writer;
+    private final int maxPending;
+    private final int flushSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService scheduler;
+
+    private Map<Object, Map<Object, Object>> pending = new LinkedHashMap<>();
+    private int flushing = 0;
+    private boolean flushScheduled = false;
+    private boolean closed = false;
+
+    private final AtomicLong writtenModels = new AtomicLong();
+    private final AtomicLong rejectedModels = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    /**
+     * @param tableName           The name of the table, used to name the flush thread.
+     * @param primaryKey          The name of the primary key field.
+     * @param mapping             Maps a model to a partial database document without null values.
+     * @param writer              Inserts the documents, updating existing ones.
+     * @param maxPending          Maximum number of buffered models.
+     * @param flushSize           Number of buffered models which triggers a flush.
+     * @param flushIntervalMillis Time after which buffered models are flushed.
+     */
+    WriteBehindBuffer(String tableName, String primaryKey, Function<T, Map<?, ?>> mapping,
+                      Function<List<Map<?, ?>>, List<BulkWriteResult>> writer,
+                      int maxPending, int flushSize, long flushIntervalMillis) {
+        this.tableName = tableName;
+        this.primaryKey = primaryKey;
+        this.mapping = mapping;
+        this.writer = writer;
+        this.maxPending = maxPending;
+        this.flushSize = flushSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "rethinkdb-write-behind-" + tableName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffers an update of a model. Blocks while the buffer is full and does not contain the key yet.
+     *
+     * @param id    The primary key of the model.
+     * @param model The model, only its non-null fields are written.
+     * @throws ReqlDriverError When the buffer is closed or the thread was interrupted while waiting.
+     */
+    @SuppressWarnings("unchecked")
+    public void update(PK id, T model) {
+        final Map<Object, Object> document = (Map<Object, Object>) mapping.apply(model);
+        document.put(primaryKey, id);
+
+        lock.lock();
+        try {
+            while (!closed && !pending.containsKey(id) && pending.size() + flushing >= maxPending) {
+                notFull.await();
+            }
+            if (closed) {
+                throw new ReqlDriverError("Buffer is already closed.");
+            }
+
+            final Map<Object, Object> buffered = pending.get(id);
+            if (buffered != null) {
+                merge(buffered, document);
+            } else {
+                pending.put(id, document);
+            }
+
+            if (pending.size() >= flushSize && !flushScheduled) {
+                flushScheduled = true;
+                scheduler.execute(this::flushQuietly);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReqlDriverError("Interrupted while waiting for the buffer to be flushed.", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all buffered models and waits until they are written.
+     *
+     * @throws ReqlError When the models could not be written, they stay buffered.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            final Map<Object, Map<Object, Object>> batch;
+            lock.lock();
+            try {
+                flushScheduled = false;
+                batch = pending;
+                if (batch.isEmpty()) {
+                    return;
+                }
+                pending = new LinkedHashMap<>();
+                flushing = batch.size();
+            } finally {
+                lock.unlock();
+            }
+
+            boolean written = false;
+            try {
+                write(batch);
+                written = true;
+            } finally {
+                lock.lock();
+                try {
+                    if (!written) {
+                        restore(batch);
+                    }
+                    flushing = 0;
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of buffered models which have not been written yet.
+     */
+    public int getPendingModels() {
+        lock.lock();
+        try {
+            return pending.size() + flushing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of models which have been written.
+     */
+    public long getWrittenModels() {
+        return writtenModels.get();
+    }
+
+    /**
+     * @return Number of models which have been rejected by the server and dropped.
+     */
+    public long getRejectedModels() {
+        return rejectedModels.get();
+    }
+
+    /**
+     * @return Number of flushes which failed and were retried.
+     */
+    public long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    /**
+     * Registers a shutdown hook of the JVM which closes the buffer, so buffered models are written on shutdown.
+     */
+    public void registerShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "rethinkdb-write-behind-shutdown-" + tableName));
+    }
+
+    /**
+     * Stops the background flushes and writes the remaining models. Blocked updates fail.
+     *
+     * @throws ReqlError When the remaining models could not be written.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        scheduler.shutdown();
+        flush();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (ReqlError e) {
+            failedFlushes.incrementAndGet();
+            LOGGER.warn("Failed to flush {} buffered models of table {}, retrying with the next flush.",
+                    getPendingModels(), tableName, e);
+        }
+    }
+
+    private void write(Map<Object, Map<Object, Object>> batch) {
+        final List<BulkWriteResult> results = writer.apply(new ArrayList<>(batch.values()));
+        for (BulkWriteResult result : results) {
+            final WriteResult chunk = result.getResult();
+            writtenModels.addAndGet(result.getSize() - chunk.getErrors());
+            if (chunk.hasErrors()) {
+                rejectedModels.addAndGet(chunk.getErrors());
+                LOGGER.warn("Server rejected {} buffered models of table {}: {}",
+                        chunk.getErrors(), tableName, chunk.getFirstError().orElse(null));
+            }
+        }
+    }
+
+    /**
+     * Puts a batch which could not be written back into the buffer, updates buffered in the meantime are newer.
+     */
+    private void restore(Map<Object, Map<Object, Object>> batch) {
+        final Map<Object, Map<Object, Object>> newer = pending;
+        pending = batch;
+        for (Map.Entry<Object, Map<Object, Object>> entry : newer.entrySet()) {
+            final Map<Object, Object> buffered = pending.get(entry.getKey());
+            if (buffered != null) {
+                merge(buffered, entry.getValue());
+            } else {
+                pending.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Merges the changes into the target like an update does, nested objects are merged recursively.
+     */
+    @SuppressWarnings("unchecked")
+    private static void merge(Map<Object, Object> target, Map<?, ?> changes) {
+        for (Map.Entry<?, ?> entry : changes.entrySet()) {
+            final Object previous = target.get(entry.getKey());
+            if (previous instanceof Map && entry.getValue() instanceof Map) {
+                merge((Map<Object, Object>) previous, (Map<?, ?>) entry.getValue());
+            } else {
+                target.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
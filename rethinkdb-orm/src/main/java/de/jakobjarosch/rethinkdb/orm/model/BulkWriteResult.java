@@ -0,0 +1,47 @@
+package de.jakobjarosch.rethinkdb.orm.model;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * The result of a single chunk of a bulk write. The offset and size locate the models
+ * of the chunk in the input, so failed models can be identified and retried.
+ */
+public class BulkWriteResult {
+
+    private final long offset;
+    private final int size;
+    private final WriteResult result;
+
+    public BulkWriteResult(long offset, int size, WriteResult result) {
+        this.offset = offset;
+        this.size = size;
+        this.result = result;
+    }
+
+    /**
+     * @return The position of the first model of this chunk in the input.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return The number of models in this chunk.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public WriteResult getResult() {
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("offset", offset)
+                .add("size", size)
+                .add("result", result)
+                .toString();
+    }
+}
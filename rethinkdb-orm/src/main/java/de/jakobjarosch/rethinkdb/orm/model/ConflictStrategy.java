@@ -0,0 +1,30 @@
+package de.jakobjarosch.rethinkdb.orm.model;
+
+/**
+ * Defines how an insert handles a document whose primary key already exists,
+ * see <a href="https://rethinkdb.com/api/java/insert/">ReQL command: insert</a>.
+ */
+public enum ConflictStrategy {
+    /**
+     * The existing document is merged with the new one.
+     */
+    UPDATE("update"),
+    /**
+     * The existing document is replaced by the new one.
+     */
+    REPLACE("replace"),
+    /**
+     * The document is not written and an error is reported.
+     */
+    ERROR("error");
+
+    private final String value;
+
+    ConflictStrategy(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
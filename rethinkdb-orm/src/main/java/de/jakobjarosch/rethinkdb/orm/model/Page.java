@@ -0,0 +1,43 @@
+package de.jakobjarosch.rethinkdb.orm.model;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A page of models, the next page is retrieved by passing the token of this page.
+ */
+public class Page<T> {
+
+    private final List<T> items;
+    private final Optional<String> nextToken;
+
+    public Page(List<T> items, String nextToken) {
+        this.items = items;
+        this.nextToken = Optional.ofNullable(nextToken);
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return An opaque token pointing behind the last model of this page, empty when this is the last page.
+     */
+    public Optional<String> getNextToken() {
+        return nextToken;
+    }
+
+    public boolean hasNext() {
+        return nextToken.isPresent();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("items", items)
+                .add("nextToken", nextToken)
+                .toString();
+    }
+}
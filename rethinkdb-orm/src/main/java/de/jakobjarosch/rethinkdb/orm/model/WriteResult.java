@@ -0,0 +1,92 @@
+package de.jakobjarosch.rethinkdb.orm.model;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.Optional;
+
+/**
+ * The summary of a write query, see <a href="https://rethinkdb.com/api/java/insert/">ReQL command: insert</a>.
+ */
+public class WriteResult {
+
+    private final long inserted;
+    private final long replaced;
+    private final long unchanged;
+    private final long deleted;
+    private final long skipped;
+    private final long errors;
+    private final Optional<String> firstError;
+
+    public WriteResult(long inserted, long replaced, long unchanged, long deleted, long skipped, long errors,
+                       String firstError) {
+        this.inserted = inserted;
+        this.replaced = replaced;
+        this.unchanged = unchanged;
+        this.deleted = deleted;
+        this.skipped = skipped;
+        this.errors = errors;
+        this.firstError = Optional.ofNullable(firstError);
+    }
+
+    public long getInserted() {
+        return inserted;
+    }
+
+    public long getReplaced() {
+        return replaced;
+    }
+
+    public long getUnchanged() {
+        return unchanged;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return The error message of the first document which failed, if any.
+     */
+    public Optional<String> getFirstError() {
+        return firstError;
+    }
+
+    public boolean hasErrors() {
+        return errors > 0;
+    }
+
+    /**
+     * @param other The result of another write.
+     * @return The sum of both results, the first error of this result takes precedence.
+     */
+    public WriteResult merge(WriteResult other) {
+        return new WriteResult(inserted + other.inserted,
+                replaced + other.replaced,
+                unchanged + other.unchanged,
+                deleted + other.deleted,
+                skipped + other.skipped,
+                errors + other.errors,
+                firstError.orElse(other.firstError.orElse(null)));
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("inserted", inserted)
+                .add("replaced", replaced)
+                .add("unchanged", unchanged)
+                .add("deleted", deleted)
+                .add("skipped", skipped)
+                .add("errors", errors)
+                .add("firstError", firstError)
+                .toString();
+    }
+}
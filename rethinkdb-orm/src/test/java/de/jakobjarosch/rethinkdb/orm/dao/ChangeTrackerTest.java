@@ -0,0 +1,56 @@
+package de.jakobjarosch.rethinkdb.orm.dao;
+
+import com.google.common.collect.ImmutableMap;
+import com.rethinkdb.gen.ast.Literal;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChangeTrackerTest {
+
+    @Test
+    public void diff_unchanged() {
+        Map<String, Object> before = ImmutableMap.of("id", "1", "rank", 10, "sub", ImmutableMap.of("name", "a"));
+
+        assertThat(ChangeTracker.diff(before, new HashMap<>(before))).isEmpty();
+    }
+
+    @Test
+    public void diff_onlyChangedPaths() {
+        Map<String, Object> before = ImmutableMap.of("id", "1", "rank", 10,
+                "sub", ImmutableMap.of("name", "a", "size", 1), "tags", Arrays.asList("x", "y"));
+        Map<String, Object> after = ImmutableMap.of("id", "1", "rank", 11,
+                "sub", ImmutableMap.of("name", "a", "size", 2), "tags", Arrays.asList("x", "z"));
+
+        Map<Object, Object> changes = ChangeTracker.diff(before, after);
+
+        assertThat(changes).containsOnlyKeys("rank", "sub", "tags");
+        assertThat(changes.get("rank")).isEqualTo(11);
+        assertThat(changes.get("sub")).isEqualTo(ImmutableMap.of("size", 2));
+        assertThat(changes.get("tags")).isEqualTo(Arrays.asList("x", "z"));
+    }
+
+    @Test
+    public void diff_removedFieldIsDeleted() {
+        Map<String, Object> before = ImmutableMap.of("id", "1", "rank", 10);
+        Map<String, Object> after = ImmutableMap.of("id", "1");
+
+        Map<Object, Object> changes = ChangeTracker.diff(before, after);
+
+        assertThat(changes.get("rank")).isInstanceOf(Literal.class);
+    }
+
+    @Test
+    public void tracksByIdentity() {
+        ChangeTracker tracker = new ChangeTracker();
+        Object model = new Object();
+        tracker.track(model, ImmutableMap.of("id", "1"));
+
+        assertThat(tracker.getSnapshot(model)).isPresent();
+        assertThat(tracker.getSnapshot(new Object())).isNotPresent();
+    }
+}
@@ -1,22 +1,43 @@
 package de.jakobjarosch.rethinkdb.orm.dao;
 
 import com.rethinkdb.RethinkDB;
+import com.rethinkdb.gen.exc.ReqlClientError;
+import com.rethinkdb.gen.exc.ReqlDriverError;
 import com.rethinkdb.net.Connection;
+import de.jakobjarosch.rethinkdb.orm.model.BulkWriteResult;
 import de.jakobjarosch.rethinkdb.orm.model.ChangeFeedElement;
+import de.jakobjarosch.rethinkdb.orm.model.ConflictStrategy;
+import de.jakobjarosch.rethinkdb.orm.model.Page;
+import de.jakobjarosch.rethinkdb.orm.model.WriteResult;
 import de.jakobjarosch.rethinkdb.orm.model.geo.ReqlLine;
 import de.jakobjarosch.rethinkdb.orm.model.geo.ReqlPoint;
 import de.jakobjarosch.rethinkdb.orm.model.geo.ReqlPolygon;
+import de.jakobjarosch.rethinkdb.pool.PersistentConnection;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import rx.Subscription;
 import rx.schedulers.Schedulers;
 
+import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 
 public class GenericDAOTest {
 
@@ -38,6 +59,12 @@ public class GenericDAOTest {
         public ReqlLine line;
         public ReqlPolygon polygon;
         public SubModel sub;
+        public OffsetDateTime created;
+    }
+
+    static class RankProjection {
+        public String id;
+        public Integer rank;
     }
 
     private static RethinkDB r = RethinkDB.r;
@@ -54,7 +81,9 @@ public class GenericDAOTest {
 
     @After
     public void teardown() {
-        r.tableDrop("integration_test").run(createConnection());
+        try (Connection connection = createConnection()) {
+            r.tableDrop("integration_test").run(connection);
+        }
     }
 
     @Test
@@ -65,6 +94,22 @@ public class GenericDAOTest {
         assertThat(dao.read("1")).isPresent();
     }
 
+    @Test
+    public void createAll_chunked() {
+        dao.create(new TestModel("3"));
+        List<TestModel> models = Arrays.asList(
+                new TestModel("1"), new TestModel("2"), new TestModel("3"), new TestModel("4"), new TestModel("5"));
+
+        List<BulkWriteResult> results = dao.createAll(models.iterator(), 2, Long.MAX_VALUE);
+
+        assertThat(results).extracting(BulkWriteResult::getOffset).containsExactly(0L, 2L, 4L);
+        assertThat(results).extracting(BulkWriteResult::getSize).containsExactly(2, 2, 1);
+        assertThat(results.get(1).getResult().getInserted()).isEqualTo(1);
+        assertThat(results.get(1).getResult().getErrors()).isEqualTo(1);
+        assertThat(results.get(1).getResult().getFirstError()).isPresent();
+        assertThat(dao.read("5")).isPresent();
+    }
+
     @Test
     public void update() {
         TestModel model = new TestModel("1");
@@ -77,6 +122,145 @@ public class GenericDAOTest {
         assertThat(dao.read("1").get().sub.name).isEqualTo(model.sub.name);
     }
 
+    @Test
+    public void update_changeTrackingOnlySendsChangedFields() {
+        TestModel model = new TestModel("1");
+        model.rank = 10;
+        dao.create(model);
+        dao.setChangeTracking(true);
+        TestModel tracked = dao.read("1").get();
+
+        // A concurrent write which must not be overwritten by unchanged fields.
+        TestModel concurrent = new TestModel("1");
+        concurrent.rank = 10;
+        concurrent.sub = new TestModel.SubModel();
+        concurrent.sub.name = "concurrent";
+        dao.update("1", concurrent);
+
+        tracked.rank = 20;
+        dao.update("1", tracked);
+
+        TestModel result = dao.read("1").get();
+        assertThat(result.rank).isEqualTo(20);
+        assertThat(result.sub.name).isEqualTo("concurrent");
+    }
+
+    @Test
+    public void save_upsertsModel() {
+        TestModel model = new TestModel("1");
+        model.rank = 10;
+        assertThat(dao.save(model).getInserted()).isEqualTo(1);
+
+        model.rank = 20;
+        assertThat(dao.save(model).getReplaced()).isEqualTo(1);
+
+        assertThat(dao.read("1").get().rank).isEqualTo(20);
+    }
+
+    @Test
+    public void save_generatesMissingPrimaryKey() {
+        TestModel model = new TestModel();
+        model.rank = 10;
+
+        assertThat(dao.save(model).getInserted()).isEqualTo(1);
+
+        List<TestModel> models = new ArrayList<>();
+        dao.read().forEachRemaining(models::add);
+        assertThat(models).hasSize(1);
+        assertThat(models.get(0).id).isNotEmpty();
+        assertThat(models.get(0).rank).isEqualTo(10);
+    }
+
+    @Test(expected = ReqlClientError.class)
+    public void save_conflictError() {
+        dao.create(new TestModel("1"));
+
+        dao.save(new TestModel("1"), ConflictStrategy.ERROR);
+    }
+
+    @Test
+    public void saveAll_replacesModels() {
+        TestModel existing = new TestModel("1");
+        existing.rank = 10;
+        dao.create(existing);
+
+        List<BulkWriteResult> results = dao.saveAll(Arrays.asList(new TestModel("1"), new TestModel("2")),
+                ConflictStrategy.REPLACE);
+
+        assertThat(results.get(0).getResult().getReplaced()).isEqualTo(1);
+        assertThat(results.get(0).getResult().getInserted()).isEqualTo(1);
+        assertThat(dao.read("1").get().rank).isNull();
+    }
+
+    @Test
+    public void noReplyWriter_confirmsWrites() {
+        dao.create(new TestModel("3"));
+
+        try (NoReplyWriter<TestModel, String> writer = dao.openNoReplyWriter(2, 60000)) {
+            writer.create(new TestModel("1"));
+            assertThat(writer.getPendingWrites()).isEqualTo(1);
+
+            TestModel model = new TestModel("2");
+            model.rank = 10;
+            writer.create(model);
+            assertThat(writer.getPendingWrites()).isEqualTo(0);
+            assertThat(writer.getConfirmedWrites()).isEqualTo(2);
+
+            writer.delete("3");
+            writer.sync();
+            assertThat(writer.getConfirmedWrites()).isEqualTo(3);
+            assertThat(writer.getFailedWrites()).isEqualTo(0);
+        }
+
+        assertThat(dao.read("2").get().rank).isEqualTo(10);
+        assertThat(dao.exists("3")).isFalse();
+    }
+
+    @Test
+    public void noReplyWriter_generatesMissingPrimaryKey() {
+        TestModel model = new TestModel();
+        model.rank = 10;
+
+        try (NoReplyWriter<TestModel, String> writer = dao.openNoReplyWriter(100, 60000)) {
+            writer.create(model);
+            writer.sync();
+        }
+
+        List<TestModel> models = new ArrayList<>();
+        dao.read().forEachRemaining(models::add);
+        assertThat(models).hasSize(1);
+        assertThat(models.get(0).id).isNotEmpty();
+        assertThat(models.get(0).rank).isEqualTo(10);
+    }
+
+    @Test
+    public void writeBehindBuffer_coalescesUpdates() {
+        try (WriteBehindBuffer<TestModel, String> buffer = dao.openWriteBehindBuffer(10, 10, 60000)) {
+            TestModel rank = new TestModel();
+            rank.rank = 10;
+            buffer.update("1", rank);
+
+            TestModel sub = new TestModel();
+            sub.sub = new TestModel.SubModel();
+            sub.sub.name = "test";
+            buffer.update("1", sub);
+            assertThat(buffer.getPendingModels()).isEqualTo(1);
+
+            buffer.flush();
+            assertThat(buffer.getPendingModels()).isEqualTo(0);
+            assertThat(buffer.getWrittenModels()).isEqualTo(1);
+
+            rank.rank = 20;
+            buffer.update("1", rank);
+            buffer.update("2", rank);
+        }
+
+        TestModel model = dao.read("1").get();
+        assertThat(model.rank).isEqualTo(20);
+        assertThat(model.sub.name).isEqualTo("test");
+        assertThat(dao.read("2").get().rank).isEqualTo(20);
+    }
+
     @Test
     public void delete() {
         TestModel model = new TestModel("1");
@@ -87,6 +271,85 @@ public class GenericDAOTest {
         assertThat(dao.read("1")).isNotPresent();
     }
 
+    @Test
+    public void withSession_reusesConnection() {
+        GenericDAO<TestModel, String> sessionDAO;
+        try (DAOSession session = dao.openSession()) {
+            sessionDAO = dao.withSession(session);
+            sessionDAO.create(new TestModel("1"));
+            sessionDAO.create(new TestModel("2"));
+
+            assertThat(sessionDAO.read("1")).isPresent();
+            assertThat(session.getConnection().isOpen()).isTrue();
+        }
+
+        try {
+            sessionDAO.read("2");
+            fail("Closed session must not be usable");
+        } catch (ReqlDriverError e) {
+            assertThat(dao.read("2")).isPresent();
+        }
+    }
+
+    @Test
+    public void deleteAll() {
+        dao.create(new TestModel("1"));
+        dao.create(new TestModel("2"));
+        dao.create(new TestModel("3"));
+
+        WriteResult result = dao.deleteAll(Arrays.asList("1", "2", "4"), 2);
+
+        assertThat(result.getDeleted()).isEqualTo(2);
+        assertThat(dao.read("3")).isPresent();
+    }
+
+    @Test
+    public void updateWhere_onlyWritesNonNullFields() {
+        TestModel model1 = new TestModel("1");
+        model1.rank = 10;
+        model1.sub = new TestModel.SubModel();
+        model1.sub.name = "test";
+        dao.create(model1);
+        TestModel model2 = new TestModel("2");
+        model2.rank = 20;
+        dao.create(model2);
+
+        TestModel partial = new TestModel();
+        partial.rank = 30;
+        WriteResult result = dao.updateWhere(t -> t.filter(r -> r.g("rank").lt(15)), partial);
+
+        assertThat(result.getReplaced()).isEqualTo(1);
+        assertThat(dao.read("1").get().rank).isEqualTo(30);
+        assertThat(dao.read("1").get().sub.name).isEqualTo("test");
+        assertThat(dao.read("2").get().rank).isEqualTo(20);
+    }
+
+    @Test
+    public void async_roundTrip() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        dao.setExecutor(executor);
+        try {
+            dao.createAsync(new TestModel("1"))
+                    .thenCompose(v -> dao.createAsync(new TestModel("2")))
+                    .join();
+
+            assertThat(dao.readAsync("1").join()).isPresent();
+            assertThat(dao.readAllAsync(Arrays.asList("1", "2")).join()).containsOnlyKeys("1", "2");
+
+            dao.deleteAsync("1").join();
+            assertThat(dao.readAsync("1").join()).isNotPresent();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void async_defaultExecutor() {
+        dao.createAsync(new TestModel("1")).join();
+
+        assertThat(dao.readAsync("1").join()).isPresent();
+    }
+
     @Test
     public void read_geoModelCorrectlyReturned() {
         TestModel model = new TestModel("1");
@@ -103,6 +366,38 @@ public class GenericDAOTest {
         assertThat(dbModel.polygon).isEqualTo(model.polygon);
     }
 
+    @Test
+    public void readAll_orderedByKeys() {
+        dao.create(new TestModel("1"));
+        dao.create(new TestModel("2"));
+        dao.create(new TestModel("3"));
+
+        Map<String, TestModel> result = dao.readAll(Arrays.asList("3", "4", "1", "2"), 2);
+
+        assertThat(result.keySet()).containsExactly("3", "1", "2");
+        assertThat(result.get("3").id).isEqualTo("3");
+    }
+
+    @Test
+    public void normalizeKey_keepsLargeIntegralKeysApart() {
+        assertThat(GenericDAO.normalizeKey(9007199254740993L)).isNotEqualTo(GenericDAO.normalizeKey(9007199254740992L));
+        assertThat(GenericDAO.normalizeKey(42)).isEqualTo(GenericDAO.normalizeKey(42.0));
+        assertThat(GenericDAO.normalizeKey(1.5)).isEqualTo(1.5);
+        assertThat(GenericDAO.normalizeKey(UUID.fromString("00000000-0000-0000-0000-000000000001")))
+                .isEqualTo("00000000-0000-0000-0000-000000000001");
+    }
+
+    @Test
+    public void readAll_parallel() {
+        dao.create(new TestModel("1"));
+        dao.create(new TestModel("2"));
+        dao.create(new TestModel("3"));
+
+        Map<String, TestModel> result = dao.readAll(Arrays.asList("1", "2", "3"), 1, ForkJoinPool.commonPool());
+
+        assertThat(result.keySet()).containsExactly("1", "2", "3");
+    }
+
     @Test
     public void read_returnsAll() {
         dao.create(new TestModel("1"));
@@ -115,6 +410,111 @@ public class GenericDAOTest {
         assertThat(result).hasSize(2);
     }
 
+    @Test
+    public void read_arrayResult() {
+        dao.create(new TestModel("2"));
+        dao.create(new TestModel("1"));
+
+        // Ordering without an index returns an array instead of a cursor.
+        Iterator<TestModel> iterator = dao.read(t -> t.orderBy("id"));
+        List<TestModel> result = new ArrayList<>();
+        iterator.forEachRemaining(result::add);
+
+        assertThat(result).extracting(m -> m.id).containsExactly("1", "2");
+    }
+
+    @Test
+    public void read_stream() {
+        dao.create(new TestModel("1"));
+        dao.create(new TestModel("2"));
+        dao.create(new TestModel("3"));
+
+        try (Stream<TestModel> stream = dao.read().stream()) {
+            assertThat(stream.filter(m -> !m.id.equals("2")).count()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void readPage_primaryKey() {
+        for (int i = 1; i <= 5; i++) {
+            dao.create(new TestModel(String.valueOf(i)));
+        }
+
+        Page<TestModel> first = dao.readPage(null, 2);
+        Page<TestModel> second = dao.readPage(first.getNextToken().get(), 2);
+        Page<TestModel> third = dao.readPage(second.getNextToken().get(), 2);
+
+        assertThat(first.getItems()).extracting(m -> m.id).containsExactly("1", "2");
+        assertThat(second.getItems()).extracting(m -> m.id).containsExactly("3", "4");
+        assertThat(third.getItems()).extracting(m -> m.id).containsExactly("5");
+        assertThat(third.hasNext()).isFalse();
+    }
+
+    @Test
+    public void readPage_secondaryIndexWithEqualValues() {
+        dao.addIndex(false, "rank");
+        dao.initTable();
+        try (Connection connection = createConnection()) {
+            r.table("integration_test").indexWait().run(connection);
+        }
+        int[] ranks = {10, 10, 10, 20, 5};
+        for (int i = 0; i < ranks.length; i++) {
+            TestModel model = new TestModel(String.valueOf(i + 1));
+            model.rank = ranks[i];
+            dao.create(model);
+        }
+
+        Page<TestModel> first = dao.readPage("rank", null, 2);
+        Page<TestModel> second = dao.readPage("rank", first.getNextToken().get(), 2);
+        Page<TestModel> third = dao.readPage("rank", second.getNextToken().get(), 2);
+
+        assertThat(first.getItems()).extracting(m -> m.id).containsExactly("5", "1");
+        assertThat(second.getItems()).extracting(m -> m.id).containsExactly("2", "3");
+        assertThat(third.getItems()).extracting(m -> m.id).containsExactly("4");
+        assertThat(third.hasNext()).isFalse();
+    }
+
+    @Test
+    public void readPage_timeIndex() {
+        dao.addIndex(false, "created");
+        dao.initTable();
+        try (Connection connection = createConnection()) {
+            r.table("integration_test").indexWait().run(connection);
+            r.table("integration_test").insert(Arrays.asList(
+                    r.hashMap("id", "1").with("created", r.epochTime(2000)),
+                    r.hashMap("id", "2").with("created", r.epochTime(1000)),
+                    r.hashMap("id", "3").with("created", r.epochTime(1000)))).run(connection);
+        }
+
+        Page<TestModel> first = dao.readPage("created", null, 1);
+        Page<TestModel> second = dao.readPage("created", first.getNextToken().get(), 1);
+        Page<TestModel> third = dao.readPage("created", second.getNextToken().get(), 1);
+
+        assertThat(first.getItems()).extracting(m -> m.id).containsExactly("2");
+        assertThat(second.getItems()).extracting(m -> m.id).containsExactly("3");
+        assertThat(third.getItems()).extracting(m -> m.id).containsExactly("1");
+        assertThat(third.hasNext()).isFalse();
+    }
+
+    @Test
+    public void read_projection() {
+        TestModel model = new TestModel("1");
+        model.rank = 10;
+        model.sub = new TestModel.SubModel();
+        model.sub.name = "test";
+        dao.create(model);
+
+        Iterator<RankProjection> iterator = dao.read(t -> t.filter(r -> r.g("rank").gt(5)), RankProjection.class);
+        List<RankProjection> result = new ArrayList<>();
+        iterator.forEachRemaining(result::add);
+
+        assertThat(result).hasSize(1);
+        assertThat(result.get(0).id).isEqualTo("1");
+        assertThat(result.get(0).rank).isEqualTo(10);
+        assertThat(dao.read("1", RankProjection.class).get().rank).isEqualTo(10);
+        assertThat(dao.read("2", RankProjection.class)).isNotPresent();
+    }
+
     @Test
     public void read_filter() {
         TestModel model1 = new TestModel("1");
@@ -133,6 +533,227 @@ public class GenericDAOTest {
         assertThat(result.get(0).id).isEqualTo(model2.id);
     }
 
+    @Test
+    public void aggregate() {
+        TestModel model1 = new TestModel("1");
+        model1.rank = 10;
+        dao.create(model1);
+
+        TestModel model2 = new TestModel("2");
+        model2.rank = 10;
+        dao.create(model2);
+
+        TestModel model3 = new TestModel("3");
+        model3.rank = 40;
+        dao.create(model3);
+
+        dao.create(new TestModel("4"));
+
+        assertThat(dao.count()).isEqualTo(4);
+        assertThat(dao.count(t -> t.filter(r -> r.g("rank").gt(10)))).isEqualTo(1);
+        assertThat(dao.exists("1")).isTrue();
+        assertThat(dao.exists("5")).isFalse();
+        assertThat(dao.sum("rank", t -> t)).isEqualTo(60.0);
+        assertThat(dao.avg("rank", t -> t)).contains(20.0);
+        assertThat(dao.min("rank", t -> t)).contains(10.0);
+        assertThat(dao.max("rank", t -> t)).contains(40.0);
+        assertThat(dao.max("rank", t -> t.getAll("4"))).isNotPresent();
+
+        Map<Object, Long> groups = dao.groupBy(t -> t.hasFields("rank"), "rank", Aggregation.count());
+        assertThat(groups).containsEntry(10L, 2L).containsEntry(40L, 1L).hasSize(2);
+    }
+
+    @Test
+    public void observe_emitsAll() {
+        dao.create(new TestModel("1"));
+        dao.create(new TestModel("2"));
+        dao.create(new TestModel("3"));
+
+        List<TestModel> result = dao.observe().toList().toBlocking().single();
+
+        assertThat(result).hasSize(3);
+    }
+
+    @Test
+    public void observe_releasesConnectionOnUnsubscribe() {
+        dao.create(new TestModel("1"));
+        dao.create(new TestModel("2"));
+        dao.create(new TestModel("3"));
+        AtomicInteger borrowed = new AtomicInteger();
+        GenericDAO<TestModel, String> countingDAO = new GenericDAO<>(() -> {
+            borrowed.incrementAndGet();
+            return new PersistentConnection(createConnection(), borrowed::decrementAndGet);
+        }, TestModel.class, "integration_test", "id");
+
+        List<TestModel> result = countingDAO.observe(t -> t.filter(r -> r.g("id").ne("2"))).take(1)
+                .toList().toBlocking().single();
+
+        assertThat(result).hasSize(1);
+        assertThat(borrowed.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void readBatching_mergesConcurrentReads() {
+        dao.create(new TestModel("1"));
+        dao.create(new TestModel("2"));
+        AtomicInteger borrowed = new AtomicInteger();
+        GenericDAO<TestModel, String> batchingDAO = new GenericDAO<>(() -> {
+            borrowed.incrementAndGet();
+            return createConnection();
+        }, TestModel.class, "integration_test", "id");
+        batchingDAO.enableReadBatching(100, 50);
+
+        ExecutorService executor = Executors.newFixedThreadPool(20);
+        List<CompletableFuture<Optional<TestModel>>> reads = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String id = String.valueOf(i % 3 + 1);
+            reads.add(CompletableFuture.supplyAsync(() -> batchingDAO.read(id), executor));
+        }
+        executor.shutdown();
+
+        for (int i = 0; i < 20; i++) {
+            Optional<TestModel> model = reads.get(i).join();
+            if (i % 3 == 2) {
+                assertThat(model).isNotPresent();
+            } else {
+                assertThat(model.get().id).isEqualTo(String.valueOf(i % 3 + 1));
+            }
+        }
+        assertThat(borrowed.get()).isLessThan(20);
+        batchingDAO.disableReadBatching();
+    }
+
+    @Test
+    public void readBatching_moreAsyncReadsThanExecutorThreads() throws Exception {
+        dao.create(new TestModel("1"));
+        GenericDAO<TestModel, String> batchingDAO = new GenericDAO<>(() -> createConnection(),
+                TestModel.class, "integration_test", "id");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        batchingDAO.setExecutor(executor);
+        batchingDAO.enableReadBatching(100, 50);
+        try {
+            // Every executor thread waits for the batch, so the batch must be read by another thread.
+            List<CompletableFuture<Optional<TestModel>>> reads = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                reads.add(batchingDAO.readAsync("1"));
+            }
+
+            for (CompletableFuture<Optional<TestModel>> read : reads) {
+                assertThat(read.get(10, TimeUnit.SECONDS)).isPresent();
+            }
+        } finally {
+            batchingDAO.disableReadBatching();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void readBatching_readsDuringDispatchJoinNextBatch() throws Exception {
+        dao.create(new TestModel("1"));
+        AtomicInteger borrowed = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        GenericDAO<TestModel, String> batchingDAO = new GenericDAO<>(() -> {
+            borrowed.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return createConnection();
+        }, TestModel.class, "integration_test", "id");
+        batchingDAO.enableReadBatching(100, 10);
+        try {
+            CompletableFuture<Optional<TestModel>> first = CompletableFuture.supplyAsync(() -> batchingDAO.read("1"));
+            loading.await();
+
+            // The first batch is already being read, a write made now might not be visible to it.
+            CompletableFuture<Optional<TestModel>> second = CompletableFuture.supplyAsync(() -> batchingDAO.read("1"));
+            Thread.sleep(100);
+            release.countDown();
+
+            assertThat(first.get(10, TimeUnit.SECONDS)).isPresent();
+            assertThat(second.get(10, TimeUnit.SECONDS)).isPresent();
+            assertThat(borrowed.get()).isEqualTo(2);
+        } finally {
+            batchingDAO.disableReadBatching();
+        }
+    }
+
+    @Test
+    public void cache_servesReadsAndAppliesChanges() throws InterruptedException {
+        AtomicInteger borrowed = new AtomicInteger();
+        GenericDAO<TestModel, String> cachedDAO = new GenericDAO<>(() -> {
+            borrowed.incrementAndGet();
+            return createConnection();
+        }, () -> createConnection(), TestModel.class, "integration_test", "id");
+        cachedDAO.enableCache(100, 60000);
+
+        TestModel model = new TestModel("1");
+        model.rank = 10;
+        dao.create(model);
+
+        // The cache is bypassed until its change feed is ready.
+        int queries = Integer.MAX_VALUE;
+        for (int i = 0; i < 50 && queries > 0; i++) {
+            cachedDAO.read("1");
+            int before = borrowed.get();
+            cachedDAO.read("1");
+            queries = borrowed.get() - before;
+            Thread.sleep(100);
+        }
+        assertThat(queries).isEqualTo(0);
+
+        model.rank = 20;
+        dao.update("1", model);
+        for (int i = 0; i < 50 && cachedDAO.read("1").get().rank != 20; i++) {
+            Thread.sleep(100);
+        }
+        assertThat(cachedDAO.read("1").get().rank).isEqualTo(20);
+
+        dao.delete("1");
+        for (int i = 0; i < 50 && cachedDAO.read("1").isPresent(); i++) {
+            Thread.sleep(100);
+        }
+        assertThat(cachedDAO.read("1")).isNotPresent();
+        cachedDAO.disableCache();
+    }
+
+    @Test
+    public void cache_evictsBulkWritesRightAway() throws InterruptedException {
+        AtomicInteger borrowed = new AtomicInteger();
+        GenericDAO<TestModel, String> cachedDAO = new GenericDAO<>(() -> {
+            borrowed.incrementAndGet();
+            return createConnection();
+        }, () -> createConnection(), TestModel.class, "integration_test", "id");
+        cachedDAO.enableCache(100, 60000);
+
+        TestModel model = new TestModel("1");
+        model.rank = 10;
+        cachedDAO.create(model);
+
+        // Waits until the change feed is ready and the model is cached.
+        int queries = Integer.MAX_VALUE;
+        for (int i = 0; i < 50 && queries > 0; i++) {
+            cachedDAO.read("1");
+            int before = borrowed.get();
+            cachedDAO.read("1");
+            queries = borrowed.get() - before;
+            Thread.sleep(100);
+        }
+        assertThat(queries).isEqualTo(0);
+
+        // The writes are read without waiting for their changes.
+        model.rank = 20;
+        cachedDAO.saveAll(Arrays.asList(model));
+        assertThat(cachedDAO.read("1").get().rank).isEqualTo(20);
+
+        cachedDAO.deleteWhere(t -> t.filter(r -> r.g("rank").eq(20)));
+        assertThat(cachedDAO.read("1")).isNotPresent();
+        cachedDAO.disableCache();
+    }
+
     @Test
     public void changes_filtered() throws InterruptedException {
         List<ChangeFeedElement<TestModel>> changes = new ArrayList<>();
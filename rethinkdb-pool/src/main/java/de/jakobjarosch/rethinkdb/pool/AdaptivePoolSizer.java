@@ -0,0 +1,86 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically adjusts the maximum connections of a partition within fixed bounds.
+ * <br>
+ * The partition grows when borrowers had to wait, and shrinks when it was mostly idle.
+ * A decision is only taken after the condition held for several consecutive runs, growing
+ * reacts faster than shrinking. Between both thresholds is a band in which nothing changes,
+ * so the size does not oscillate.
+ */
+class AdaptivePoolSizer implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptivePoolSizer.class);
+
+    static final long INTERVAL_MILLIS = 15_000;
+
+    private static final double GROW_WAIT_TIME = 5; // milliseconds
+    private static final double GROW_UTILIZATION = 0.9;
+    private static final double SHRINK_WAIT_TIME = 1; // milliseconds
+    private static final double SHRINK_UTILIZATION = 0.5;
+    private static final int GROW_AFTER_RUNS = 2;
+    private static final int SHRINK_AFTER_RUNS = 8;
+
+    private final PoolPartition partition;
+    private final int minConnections;
+    private final int maxConnections;
+
+    private int growRuns = 0;
+    private int shrinkRuns = 0;
+
+    AdaptivePoolSizer(PoolPartition partition, int minConnections, int maxConnections) {
+        this.partition = partition;
+        this.minConnections = minConnections;
+        this.maxConnections = maxConnections;
+    }
+
+    @Override
+    public void run() {
+        try {
+            resize();
+        } catch (RuntimeException e) {
+            // Never let an exception cancel the periodic execution.
+            LOGGER.error("Failed to resize partition {}.", partition.getName(), e);
+        }
+    }
+
+    private void resize() {
+        if (partition.isClosed()) {
+            return;
+        }
+
+        final LatencyRecorder.Snapshot waitTimes = partition.getWaitTimes(INTERVAL_MILLIS);
+        final double waitTime = waitTimes.getPercentile(95);
+        final double utilization = partition.getUtilization();
+        final int current = partition.getMaxConnectionsPerHost();
+
+        if (waitTime >= GROW_WAIT_TIME || utilization >= GROW_UTILIZATION) {
+            shrinkRuns = 0;
+            growRuns++;
+        } else if (waitTime <= SHRINK_WAIT_TIME && utilization <= SHRINK_UTILIZATION) {
+            growRuns = 0;
+            shrinkRuns++;
+        } else {
+            growRuns = 0;
+            shrinkRuns = 0;
+        }
+
+        if (growRuns >= GROW_AFTER_RUNS && current < maxConnections) {
+            final int size = Math.min(maxConnections, current + Math.max(1, current / 4));
+            LOGGER.info("Growing partition {} from {} to {} connections (p95 wait {} ms, utilization {}).",
+                    partition.getName(), current, size, waitTime, utilization);
+            partition.setMaxConnectionsPerHost(size);
+            growRuns = 0;
+        } else if (shrinkRuns >= SHRINK_AFTER_RUNS && current > minConnections) {
+            final int size = current - 1;
+            LOGGER.info("Shrinking partition {} from {} to {} connections (p95 wait {} ms, utilization {}).",
+                    partition.getName(), current, size, waitTime, utilization);
+            partition.setMaxConnectionsPerHost(size);
+            shrinkRuns = 0;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+
+import de.jakobjarosch.rethinkdb.pool.ConnectionPoolMetrics.CircuitState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stops handing out connections when the failure rate within a time window exceeds a threshold.
+ * <br>
+ * While {@link CircuitState#OPEN} every request is rejected immediately. After the open time a single
+ * trial request is permitted ({@link CircuitState#HALF_OPEN}), its success closes the circuit again,
+ * its failure re-opens it.
+ */
+class CircuitBreaker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final long WINDOW_MILLIS = 10_000;
+
+    private final boolean enabled;
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long openMillis;
+
+    private final AtomicReference<CircuitState> state = new AtomicReference<>(CircuitState.CLOSED);
+    private final AtomicBoolean trialRunning = new AtomicBoolean();
+    private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile long openedAt = 0;
+
+    private CircuitBreaker(boolean enabled, double failureRateThreshold, int minimumCalls, long openMillis) {
+        this.enabled = enabled;
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumCalls = minimumCalls;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @param failureRateThreshold Failure rate between 0 and 1 at which the circuit opens.
+     * @param minimumCalls         Minimum number of calls within the window before the failure rate is evaluated.
+     * @param openMillis           Time in milliseconds the circuit stays open before a trial request is permitted.
+     */
+    CircuitBreaker(double failureRateThreshold, int minimumCalls, long openMillis) {
+        this(true, failureRateThreshold, minimumCalls, openMillis);
+    }
+
+    static CircuitBreaker disabled() {
+        return new CircuitBreaker(false, 1, Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * The outcome of {@link #tryAcquirePermission()}.
+     */
+    enum Permission {
+        REJECTED,
+        PERMITTED,
+        /**
+         * The single trial request of the half-open circuit, only its outcome closes or re-opens the circuit.
+         */
+        TRIAL
+    }
+
+    /**
+     * @return Whether the request is permitted. Every permitted request must report its outcome with
+     * {@link #success(Permission)} or {@link #failure(Permission)}, or {@link #release(Permission)} the permission.
+     */
+    Permission tryAcquirePermission() {
+        if (!enabled) {
+            return Permission.PERMITTED;
+        }
+
+        switch (state.get()) {
+            case CLOSED:
+                return Permission.PERMITTED;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openMillis) {
+                    return Permission.REJECTED;
+                }
+                // The trial is claimed before the transition, so only the thread which won both gets it.
+                if (!trialRunning.compareAndSet(false, true)) {
+                    return Permission.REJECTED;
+                }
+                if (state.compareAndSet(CircuitState.OPEN, CircuitState.HALF_OPEN)) {
+                    LOGGER.info("Circuit breaker is half-open, permitting a trial request.");
+                    return Permission.TRIAL;
+                }
+                trialRunning.set(false);
+                return Permission.REJECTED;
+            default:
+                return trialRunning.compareAndSet(false, true) ? Permission.TRIAL : Permission.REJECTED;
+        }
+    }
+
+    /**
+     * Reports a successful query, it is only counted while the circuit is closed.
+     */
+    void success() {
+        success(Permission.PERMITTED);
+    }
+
+    /**
+     * @param permission The permission of the request, the success of the trial request closes the circuit.
+     */
+    void success(Permission permission) {
+        if (!enabled) {
+            return;
+        }
+
+        if (permission == Permission.TRIAL) {
+            if (state.compareAndSet(CircuitState.HALF_OPEN, CircuitState.CLOSED)) {
+                LOGGER.info("Circuit breaker closed, trial request succeeded.");
+                resetWindow(System.currentTimeMillis());
+                trialRunning.set(false);
+            }
+            return;
+        }
+
+        if (state.get() == CircuitState.CLOSED) {
+            rollWindow();
+            successes.increment();
+        }
+    }
+
+    /**
+     * Reports a failed connection attempt or query, it is only counted while the circuit is closed.
+     */
+    void failure() {
+        failure(Permission.PERMITTED);
+    }
+
+    /**
+     * @param permission The permission of the request, the failure of the trial request re-opens the circuit.
+     */
+    void failure(Permission permission) {
+        if (!enabled) {
+            return;
+        }
+
+        if (permission == Permission.TRIAL) {
+            open(CircuitState.HALF_OPEN);
+            return;
+        }
+
+        final CircuitState current = state.get();
+        if (current != CircuitState.CLOSED) {
+            return;
+        }
+
+        rollWindow();
+        failures.increment();
+
+        final long failed = failures.sum();
+        final long calls = failed + successes.sum();
+        if (calls >= minimumCalls && (double) failed / calls >= failureRateThreshold) {
+            open(current);
+        }
+    }
+
+    /**
+     * Gives back a permission without an outcome, e.g. when no connection was free.
+     */
+    void release(Permission permission) {
+        if (enabled && permission == Permission.TRIAL && state.get() == CircuitState.HALF_OPEN) {
+            trialRunning.set(false);
+        }
+    }
+
+    CircuitState getState() {
+        return state.get();
+    }
+
+    private void open(CircuitState expected) {
+        final long now = System.currentTimeMillis();
+        // Set before the transition, so no thread sees the open state with the previous open time.
+        openedAt = now;
+        if (state.compareAndSet(expected, CircuitState.OPEN)) {
+            LOGGER.warn("Circuit breaker opened, rejecting connections for {} ms.", openMillis);
+            resetWindow(now);
+            trialRunning.set(false);
+        }
+    }
+
+    private void rollWindow() {
+        final long now = System.currentTimeMillis();
+        final long start = windowStart.get();
+        if (now - start >= WINDOW_MILLIS && windowStart.compareAndSet(start, now)) {
+            successes.reset();
+            failures.reset();
+        }
+    }
+
+    private void resetWindow(long now) {
+        windowStart.set(now);
+        successes.reset();
+        failures.reset();
+    }
+}
@@ -5,25 +5,62 @@ import com.rethinkdb.net.Connection;
 import org.apache.commons.pool2.BasePooledObjectFactory;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class ConnectionFactory extends BasePooledObjectFactory<Connection> {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionFactory.class);
+
+    /**
+     * Maximum time in milliseconds a connection may take to answer the ping.
+     */
+    static final long PING_TIMEOUT_MILLIS = 5_000;
+
+    /**
+     * Runs the pings, so a half-dead socket does not block the evictor thread, which is shared by all pools.
+     */
+    private static final ExecutorService PING_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "rethinkdb-pool-ping");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private final String hostname;
     private final int port;
     private final String username;
     private final String password;
     private final String database;
+    private final long maxConnectionAge;
 
     @Inject
     public ConnectionFactory(String hostname, int port, String username, String password, String database) {
+        this(hostname, port, username, password, database, 0);
+    }
+
+    /**
+     * @param maxConnectionAge Time in milliseconds after which a connection is replaced, 0 keeps connections forever.
+     */
+    public ConnectionFactory(String hostname, int port, String username, String password, String database,
+                             long maxConnectionAge) {
         this.hostname = hostname;
         this.port = port;
         this.username = username;
         this.password = password;
         this.database = database;
+        this.maxConnectionAge = maxConnectionAge;
+    }
+
+    long getMaxConnectionAge() {
+        return maxConnectionAge;
     }
 
     @Override
@@ -46,8 +83,43 @@ public class ConnectionFactory extends BasePooledObjectFactory<Connection> {
         connection.getObject().close();
     }
 
+    /**
+     * A connection is valid when it is open, not older than the maximum connection age
+     * and still answers a query. Half-dead sockets are only detected by the query.
+     */
     @Override
     public boolean validateObject(PooledObject<Connection> connection) {
-        return connection.getObject().isOpen();
+        if (maxConnectionAge > 0 && System.currentTimeMillis() - connection.getCreateTime() > maxConnectionAge) {
+            return false;
+        }
+        return ping(connection.getObject());
+    }
+
+    /**
+     * @param connection The connection to check, it is closed when it does not answer within the timeout.
+     * @return True when the connection is open and answered a trivial query within {@link #PING_TIMEOUT_MILLIS}.
+     */
+    static boolean ping(Connection connection) {
+        if (!connection.isOpen()) {
+            return false;
+        }
+
+        final Future<?> ping = PING_EXECUTOR.submit(() -> RethinkDB.r.expr(1).run(connection));
+        try {
+            ping.get(PING_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            LOGGER.warn("Connection did not answer ping within {} ms.", PING_TIMEOUT_MILLIS);
+            // Closing the socket unblocks the thread waiting for the answer.
+            connection.close();
+            return false;
+        } catch (ExecutionException e) {
+            LOGGER.debug("Connection failed to answer ping.", e.getCause());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ping.cancel(true);
+            return false;
+        }
     }
 }
@@ -1,5 +1,7 @@
 package de.jakobjarosch.rethinkdb.pool;
 
+import java.util.List;
+import java.util.Map;
 
 public class ConnectionPoolMetrics {
 
@@ -12,28 +14,74 @@ public class ConnectionPoolMetrics {
          * No free connections left, and maxConnections reached.
          */
         FULL,
+        /**
+         * At least one host is ejected because of failures.
+         */
+        DEGRADED,
+        /**
+         * The circuit breaker is open, connections are rejected immediately.
+         */
+        UNAVAILABLE,
+        /**
+         * The circuit breaker is half-open, a trial request decides whether connections are handed out again.
+         */
+        RECOVERING,
         STOPPED
     }
 
+    public enum CircuitState {
+        /**
+         * Connections are handed out, failures are counted.
+         */
+        CLOSED,
+        /**
+         * The failure rate exceeded the threshold, connections are rejected immediately.
+         */
+        OPEN,
+        /**
+         * A single trial request is permitted to test whether the database is available again.
+         */
+        HALF_OPEN
+    }
+
     private final int connections;
     private final int freeConnections;
     private final int maxConnections;
     private final double connectionsPerSecond;
     private final double averageWaitTime;
+    private final double medianWaitTime;
+    private final double p95WaitTime;
+    private final double p99WaitTime;
+    private final double maxWaitTime;
+    private final List<HostMetrics> hosts;
+    private final CircuitState circuitState;
     private final PoolHealth poolHealth;
+    private final long leakedConnections;
+    private final Map<String, Long> leakSites;
 
     ConnectionPoolMetrics(int connections,
                           int freeConnections,
                           int maxConnections,
-                          double connectionsPerSecond,
-                          double averageWaitTime,
-                          PoolHealth poolHealth) {
+                          LatencyRecorder.Snapshot waitTimes,
+                          List<HostMetrics> hosts,
+                          CircuitState circuitState,
+                          PoolHealth poolHealth,
+                          long leakedConnections,
+                          Map<String, Long> leakSites) {
         this.connections = connections;
         this.freeConnections = freeConnections;
         this.maxConnections = maxConnections;
-        this.connectionsPerSecond = connectionsPerSecond;
-        this.averageWaitTime = averageWaitTime;
+        this.connectionsPerSecond = waitTimes.getRatePerSecond();
+        this.averageWaitTime = waitTimes.getAverage();
+        this.medianWaitTime = waitTimes.getPercentile(50);
+        this.p95WaitTime = waitTimes.getPercentile(95);
+        this.p99WaitTime = waitTimes.getPercentile(99);
+        this.maxWaitTime = waitTimes.getMax();
+        this.hosts = hosts;
+        this.circuitState = circuitState;
         this.poolHealth = poolHealth;
+        this.leakedConnections = leakedConnections;
+        this.leakSites = leakSites;
     }
 
     @SuppressWarnings("unused")
@@ -67,8 +115,70 @@ public class ConnectionPoolMetrics {
         return averageWaitTime;
     }
 
+    /**
+     * @return The median wait time to obtain a connection in the last 5 minutes. Unit is milliseconds.
+     */
+    @SuppressWarnings("unused")
+    public double getMedianWaitTime() {
+        return medianWaitTime;
+    }
+
+    /**
+     * @return The 95th percentile of the wait time to obtain a connection in the last 5 minutes. Unit is milliseconds.
+     */
+    @SuppressWarnings("unused")
+    public double getP95WaitTime() {
+        return p95WaitTime;
+    }
+
+    /**
+     * @return The 99th percentile of the wait time to obtain a connection in the last 5 minutes. Unit is milliseconds.
+     */
+    @SuppressWarnings("unused")
+    public double getP99WaitTime() {
+        return p99WaitTime;
+    }
+
+    /**
+     * @return The maximum wait time to obtain a connection in the last 5 minutes. Unit is milliseconds.
+     */
+    @SuppressWarnings("unused")
+    public double getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * @return The metrics of every configured host.
+     */
+    @SuppressWarnings("unused")
+    public List<HostMetrics> getHosts() {
+        return hosts;
+    }
+
+    @SuppressWarnings("unused")
+    public CircuitState getCircuitState() {
+        return circuitState;
+    }
+
     @SuppressWarnings("unused")
     public PoolHealth getPoolHealth() {
         return poolHealth;
     }
+
+    /**
+     * @return The number of connections held longer than the leak threshold since the pool was built.
+     * Always 0 when the leak detection is disabled.
+     */
+    @SuppressWarnings("unused")
+    public long getLeakedConnections() {
+        return leakedConnections;
+    }
+
+    /**
+     * @return The call sites which leaked the most connections with their number of leaks, ordered descending.
+     */
+    @SuppressWarnings("unused")
+    public Map<String, Long> getLeakSites() {
+        return leakSites;
+    }
 }
@@ -0,0 +1,57 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+
+public class HostMetrics {
+
+    private final String hostname;
+    private final int port;
+    private final int connections;
+    private final int freeConnections;
+    private final double averageLatency;
+    private final boolean ejected;
+
+    HostMetrics(String hostname, int port, int connections, int freeConnections, double averageLatency, boolean ejected) {
+        this.hostname = hostname;
+        this.port = port;
+        this.connections = connections;
+        this.freeConnections = freeConnections;
+        this.averageLatency = averageLatency;
+        this.ejected = ejected;
+    }
+
+    @SuppressWarnings("unused")
+    public String getHostname() {
+        return hostname;
+    }
+
+    @SuppressWarnings("unused")
+    public int getPort() {
+        return port;
+    }
+
+    @SuppressWarnings("unused")
+    public int getConnections() {
+        return connections;
+    }
+
+    @SuppressWarnings("unused")
+    public int getFreeConnections() {
+        return freeConnections;
+    }
+
+    /**
+     * @return The exponentially weighted average query latency of this host. Unit is milliseconds.
+     */
+    @SuppressWarnings("unused")
+    public double getAverageLatency() {
+        return averageLatency;
+    }
+
+    /**
+     * @return True when the host is currently not used because of previous failures.
+     */
+    @SuppressWarnings("unused")
+    public boolean isEjected() {
+        return ejected;
+    }
+}
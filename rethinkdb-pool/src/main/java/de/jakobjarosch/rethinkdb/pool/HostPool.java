@@ -0,0 +1,262 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+
+import com.rethinkdb.net.Connection;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * All connections of a single RethinkDB host, including the health state used for routing.
+ * After a number of consecutive failures the host is ejected for a while, afterwards it is
+ * re-admitted and ejected again on the next failure until a query succeeds.
+ */
+class HostPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HostPool.class);
+
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    private final String hostname;
+    private final int port;
+    private final GenericObjectPool<Connection> pool;
+    private final SharedConnections sharedConnections;
+    private final int maxFailures;
+    private final long ejectionMillis;
+    private final CircuitBreaker circuitBreaker;
+    private final double idleRatio;
+    private final int configuredMinIdle;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong latencyBits = new AtomicLong(Double.doubleToLongBits(0));
+    private volatile long ejectedUntil = 0;
+
+    HostPool(String hostname,
+             int port,
+             GenericObjectPool<Connection> pool,
+             SharedConnections sharedConnections,
+             int maxFailures,
+             long ejectionMillis,
+             CircuitBreaker circuitBreaker) {
+        this.hostname = hostname;
+        this.port = port;
+        this.pool = pool;
+        this.sharedConnections = sharedConnections;
+        this.maxFailures = maxFailures;
+        this.ejectionMillis = ejectionMillis;
+        this.circuitBreaker = circuitBreaker;
+        // Negative limits are unlimited, free connections are then bounded by the maximum connections only.
+        this.idleRatio = pool.getMaxTotal() > 0 && pool.getMaxIdle() >= 0
+                ? Math.min(1, (double) pool.getMaxIdle() / pool.getMaxTotal()) : 1;
+        this.configuredMinIdle = pool.getMinIdle();
+    }
+
+    /**
+     * @param timeoutMillis Maximum time to wait for a free connection, 0 does not wait at all.
+     * @param onRelease     Called after the connection has been handed back to this host.
+     * @return A connection which is handed back to this host when closed.
+     * @throws java.util.NoSuchElementException Thrown when no connection was free within the timeout.
+     * @throws Exception                        Thrown when a connection to the host could not be established.
+     */
+    PersistentConnection borrow(long timeoutMillis, PersistentConnection.CloseCallback onRelease) throws Exception {
+        if (sharedConnections != null) {
+            final PersistentConnection connection = sharedConnections.acquire(timeoutMillis, () -> {
+                outstanding.decrementAndGet();
+                onRelease.free();
+            }, this::completed);
+            outstanding.incrementAndGet();
+            return connection;
+        }
+
+        return lease(pool.borrowObject(timeoutMillis), onRelease);
+    }
+
+    /**
+     * Only hands out connections which are open already, so the caller is not blocked by a connection setup.
+     *
+     * @param onRelease Called after the connection has been handed back to this host.
+     * @return A connection which is handed back to this host when closed.
+     * @throws java.util.NoSuchElementException Thrown when no open connection was free.
+     * @throws Exception                        Thrown when a free connection could not be activated.
+     */
+    PersistentConnection borrowIdle(PersistentConnection.CloseCallback onRelease) throws Exception {
+        if (sharedConnections != null) {
+            final PersistentConnection connection = sharedConnections.acquireOpen(() -> {
+                outstanding.decrementAndGet();
+                onRelease.free();
+            }, this::completed);
+            outstanding.incrementAndGet();
+            return connection;
+        }
+
+        // The pool opens a connection when no free one is left. A concurrent borrower might take the last free
+        // connection in between, so on rare occasions a connection is opened nevertheless.
+        if (pool.getNumIdle() == 0) {
+            throw new NoSuchElementException("No free connection left.");
+        }
+        return lease(pool.borrowObject(0), onRelease);
+    }
+
+    private PersistentConnection lease(Connection connection, PersistentConnection.CloseCallback onRelease) {
+        outstanding.incrementAndGet();
+        return new PersistentConnection(connection, () -> {
+            outstanding.decrementAndGet();
+            if (connection.isOpen()) {
+                pool.returnObject(connection);
+            } else {
+                invalidate(connection);
+            }
+            onRelease.free();
+        }, this::completed);
+    }
+
+    /**
+     * Destroys a closed connection instead of returning it, so it is never handed out again.
+     */
+    private void invalidate(Connection connection) {
+        try {
+            pool.invalidateObject(connection);
+        } catch (Exception e) {
+            LOGGER.warn("Failed to destroy closed connection of host {}:{}.", hostname, port, e);
+        }
+    }
+
+    /**
+     * Opens the minimum free connections, so the first borrowers do not pay the connection setup.
+     */
+    void warmUp() {
+        try {
+            if (sharedConnections != null) {
+                sharedConnections.validate();
+            } else {
+                pool.preparePool();
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Failed to warm up connections of host {}:{}.", hostname, port, e);
+        }
+    }
+
+    /**
+     * Pings the shared connections and replaces broken ones. Free connections of an exclusive pool are
+     * validated by the evictor of the pool.
+     */
+    void validate() {
+        if (sharedConnections != null) {
+            sharedConnections.validate();
+        }
+    }
+
+    void close() {
+        pool.close();
+        pool.setTimeBetweenEvictionRunsMillis(-1);
+        if (sharedConnections != null) {
+            sharedConnections.close();
+        }
+    }
+
+    boolean isClosed() {
+        return pool.isClosed();
+    }
+
+    boolean isFull() {
+        return sharedConnections != null ? sharedConnections.isFull() : pool.getNumActive() >= pool.getMaxTotal();
+    }
+
+    boolean isEjected() {
+        return System.currentTimeMillis() < ejectedUntil;
+    }
+
+    long getEjectedUntil() {
+        return ejectedUntil;
+    }
+
+    int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return The exponentially weighted average query latency in nanoseconds.
+     */
+    double getLatency() {
+        return Double.longBitsToDouble(latencyBits.get());
+    }
+
+    void failed() {
+        if (consecutiveFailures.incrementAndGet() >= maxFailures) {
+            if (!isEjected()) {
+                LOGGER.warn("Ejecting host {}:{} for {} ms after {} consecutive failures.",
+                        hostname, port, ejectionMillis, consecutiveFailures.get());
+            }
+            ejectedUntil = System.currentTimeMillis() + ejectionMillis;
+            // Idle connections of a failing host are most likely broken as well.
+            pool.clear();
+        }
+    }
+
+    HostMetrics getMetrics() {
+        if (sharedConnections != null) {
+            return new HostMetrics(hostname, port, sharedConnections.getLeases(), sharedConnections.getUnusedConnections(),
+                    getLatency() / 1_000_000, isEjected());
+        }
+        return new HostMetrics(hostname, port, pool.getNumActive(), pool.getNumIdle(), getLatency() / 1_000_000, isEjected());
+    }
+
+    int getConnections() {
+        return sharedConnections != null ? sharedConnections.getLeases() : pool.getNumActive();
+    }
+
+    int getFreeConnections() {
+        return sharedConnections != null ? sharedConnections.getUnusedConnections() : pool.getNumIdle();
+    }
+
+    int getMaxConnections() {
+        return sharedConnections != null ? sharedConnections.size() : pool.getMaxTotal();
+    }
+
+    int getMaxTotal() {
+        return pool.getMaxTotal();
+    }
+
+    /**
+     * Changes the maximum connections of this host. The maximum free connections keep their configured
+     * share of the maximum connections, so returned connections are not closed after growing.
+     * Shrinking does not close connections in use, they are closed when returned.
+     *
+     * @param maxTotal The new maximum number of connections.
+     */
+    void setMaxTotal(int maxTotal) {
+        final int maxIdle = Math.min(maxTotal, Math.max(1, (int) Math.ceil(maxTotal * idleRatio)));
+        pool.setMaxTotal(maxTotal);
+        pool.setMaxIdle(maxIdle);
+        pool.setMinIdle(Math.min(configuredMinIdle, maxIdle));
+    }
+
+    private void completed(long durationNanos, boolean connectionFailure) {
+        if (connectionFailure) {
+            circuitBreaker.failure();
+            failed();
+            return;
+        }
+
+        circuitBreaker.success();
+        consecutiveFailures.set(0);
+        long current;
+        long updated;
+        do {
+            current = latencyBits.get();
+            final double latency = Double.longBitsToDouble(current);
+            final double next = latency == 0 ? durationNanos : latency + LATENCY_WEIGHT * (durationNanos - latency);
+            updated = Double.doubleToLongBits(next);
+        } while (!latencyBits.compareAndSet(current, updated));
+    }
+
+    @Override
+    public String toString() {
+        return hostname + ":" + port;
+    }
+}
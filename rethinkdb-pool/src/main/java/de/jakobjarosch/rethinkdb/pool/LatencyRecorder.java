@@ -0,0 +1,196 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Records latencies into a fixed-size ring of time slices, each slice holds a log-linear histogram.
+ * Recording is lock-free and does not allocate, reading merges all slices within the time window.
+ * <br>
+ * Values are stored in microseconds, every power of two is split into 16 linear sub buckets
+ * which limits the relative error of a percentile to about 6%.
+ */
+class LatencyRecorder {
+
+    private static final long DEFAULT_WINDOW = 5 * 60 * 1_000; // 5 minutes
+    private static final int DEFAULT_SLICES = 20;
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40; // ~12 days in microseconds
+    private static final int BINS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private static class Slice {
+        final AtomicLong epoch = new AtomicLong(-1);
+        final AtomicLongArray bins = new AtomicLongArray(BINS);
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+        final AtomicLong max = new AtomicLong();
+
+        void reset() {
+            for (int i = 0; i < BINS; i++) {
+                bins.set(i, 0);
+            }
+            count.reset();
+            sum.reset();
+            max.set(0);
+        }
+    }
+
+    /**
+     * Immutable view on the recorded latencies within the time window. All durations are in milliseconds.
+     */
+    static class Snapshot {
+        private final long[] bins;
+        private final long count;
+        private final long sum;
+        private final long max;
+        private final long windowMillis;
+
+        private Snapshot(long[] bins, long count, long sum, long max, long windowMillis) {
+            this.bins = bins;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+            this.windowMillis = windowMillis;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        double getAverage() {
+            return count == 0 ? 0 : toMillis(sum) / count;
+        }
+
+        double getMax() {
+            return toMillis(max);
+        }
+
+        double getRatePerSecond() {
+            return windowMillis == 0 ? 0 : count * 1000.0 / windowMillis;
+        }
+
+        /**
+         * @param percentile Percentile between 0 and 100.
+         * @return The upper bound of the bucket containing the percentile, never larger than the observed maximum.
+         */
+        double getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < bins.length; i++) {
+                seen += bins[i];
+                if (seen >= rank) {
+                    return toMillis(Math.min(upperBound(i), max));
+                }
+            }
+            return getMax();
+        }
+
+        private static double toMillis(long micros) {
+            return micros / 1000.0;
+        }
+    }
+
+    private final Slice[] slices;
+    private final long sliceMillis;
+    private final LongSupplier clock;
+    private final long startTime;
+
+    LatencyRecorder() {
+        this(DEFAULT_WINDOW, DEFAULT_SLICES, System::currentTimeMillis);
+    }
+
+    LatencyRecorder(long windowMillis, int sliceCount, LongSupplier clock) {
+        this.slices = new Slice[sliceCount];
+        for (int i = 0; i < sliceCount; i++) {
+            slices[i] = new Slice();
+        }
+        this.sliceMillis = Math.max(1, windowMillis / sliceCount);
+        this.clock = clock;
+        this.startTime = clock.getAsLong();
+    }
+
+    /**
+     * @param durationNanos The recorded duration in nanoseconds.
+     */
+    void record(long durationNanos) {
+        final long micros = Math.min(Math.max(0, TimeUnit.NANOSECONDS.toMicros(durationNanos)), MAX_VALUE);
+        final long epoch = clock.getAsLong() / sliceMillis;
+        final Slice slice = slices[(int) (epoch % slices.length)];
+
+        final long sliceEpoch = slice.epoch.get();
+        if (sliceEpoch != epoch && slice.epoch.compareAndSet(sliceEpoch, epoch)) {
+            // The slice still contains values of an outdated epoch. Values recorded concurrently
+            // while resetting may get lost, which is acceptable for statistics.
+            slice.reset();
+        }
+
+        slice.bins.incrementAndGet(binIndex(micros));
+        slice.count.increment();
+        slice.sum.add(micros);
+        slice.max.accumulateAndGet(micros, Math::max);
+    }
+
+    Snapshot snapshot() {
+        return snapshot(sliceMillis * slices.length);
+    }
+
+    /**
+     * @param windowMillis Only slices within this window are included, the window is rounded up to whole slices.
+     * @return The recorded latencies within the window.
+     */
+    Snapshot snapshot(long windowMillis) {
+        final long now = clock.getAsLong();
+        final long epoch = now / sliceMillis;
+        final int sliceCount = (int) Math.min(slices.length, Math.max(1, (windowMillis + sliceMillis - 1) / sliceMillis));
+
+        final long[] bins = new long[BINS];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (Slice slice : slices) {
+            final long sliceEpoch = slice.epoch.get();
+            if (sliceEpoch > epoch - sliceCount && sliceEpoch <= epoch) {
+                for (int i = 0; i < BINS; i++) {
+                    bins[i] += slice.bins.get(i);
+                }
+                count += slice.count.sum();
+                sum += slice.sum.sum();
+                max = Math.max(max, slice.max.get());
+            }
+        }
+
+        // The current slice is only partially elapsed.
+        final long elapsedMillis = Math.min(now - startTime, (sliceCount - 1) * sliceMillis + now % sliceMillis);
+        return new Snapshot(bins, count, sum, max, elapsedMillis);
+    }
+
+    static int binIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
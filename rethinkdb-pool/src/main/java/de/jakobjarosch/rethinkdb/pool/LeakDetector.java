@@ -0,0 +1,123 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks all leased connections of a partition and reports leases which are held longer than a threshold.
+ * Every lease remembers the stack of its borrower, leaks are counted per call site, which is the
+ * first stack frame outside of this library.
+ * <br>
+ * When reclaiming is enabled a leaked connection is closed and destroyed by the pool, further use of the lease fails.
+ * The {@link RethinkDBPool#STREAMING_PARTITION} is not tracked, its change feeds hold connections by design.
+ */
+class LeakDetector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeakDetector.class);
+
+    static final long INTERVAL_MILLIS = 5_000;
+
+    private static final int MAX_SITES = 100;
+    private static final int TOP_SITES = 10;
+    private static final String OTHER_SITES = "<other>";
+
+    private final long thresholdMillis;
+    private final boolean reclaim;
+
+    // Value is true when the lease was already reported as leak.
+    private final ConcurrentMap<PersistentConnection, Boolean> leases = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> sites = new ConcurrentHashMap<>();
+    private final LongAdder leaked = new LongAdder();
+
+    LeakDetector(long thresholdMillis, boolean reclaim) {
+        this.thresholdMillis = thresholdMillis;
+        this.reclaim = reclaim;
+    }
+
+    /**
+     * @return The stack of the current borrower, should be captured before waiting for a connection.
+     */
+    Throwable captureBorrowSite() {
+        return new Throwable("Connection borrowed here");
+    }
+
+    void borrowed(PersistentConnection connection, Throwable borrowSite) {
+        connection.setBorrowSite(borrowSite);
+        leases.put(connection, false);
+    }
+
+    void released(PersistentConnection connection) {
+        leases.remove(connection);
+    }
+
+    /**
+     * Reports all leases held longer than the threshold which were not reported yet.
+     */
+    void detect() {
+        final long now = System.currentTimeMillis();
+        for (PersistentConnection connection : leases.keySet()) {
+            final long heldMillis = now - connection.getBorrowedAt();
+            if (heldMillis < thresholdMillis || !leases.replace(connection, false, true)) {
+                continue;
+            }
+
+            leaked.increment();
+            final String site = getCallSite(connection.getBorrowSite());
+            final String key = sites.size() < MAX_SITES || sites.containsKey(site) ? site : OTHER_SITES;
+            sites.computeIfAbsent(key, k -> new LongAdder()).increment();
+
+            if (reclaim) {
+                LOGGER.warn("Reclaiming connection held for {} ms, leaked at {}.", heldMillis, site, connection.getBorrowSite());
+                connection.reclaim();
+            } else {
+                LOGGER.warn("Connection held for {} ms, possibly leaked at {}.", heldMillis, site, connection.getBorrowSite());
+            }
+        }
+    }
+
+    long getLeakedConnections() {
+        return leaked.sum();
+    }
+
+    /**
+     * @return The call sites with the most leaks, ordered by the number of leaks.
+     */
+    Map<String, Long> getLeakSites() {
+        final Map<String, Long> top = new LinkedHashMap<>();
+        sites.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()))
+                .limit(TOP_SITES)
+                .forEach(e -> top.put(e.getKey(), e.getValue().sum()));
+        return Collections.unmodifiableMap(top);
+    }
+
+    /**
+     * @param borrowSite The captured stack of the borrower.
+     * @return The first frame which is neither part of this library, the JDK nor a lambda.
+     */
+    static String getCallSite(Throwable borrowSite) {
+        if (borrowSite == null) {
+            return "<unknown>";
+        }
+
+        final StackTraceElement[] stack = borrowSite.getStackTrace();
+        for (StackTraceElement frame : stack) {
+            final String className = frame.getClassName();
+            if (!className.startsWith("de.jakobjarosch.rethinkdb.")
+                    && !className.startsWith("java.")
+                    && !className.startsWith("sun.")
+                    && !frame.getMethodName().startsWith("lambda$")) {
+                return frame.toString();
+            }
+        }
+        return stack.length > 0 ? stack[stack.length - 1].toString() : "<unknown>";
+    }
+}
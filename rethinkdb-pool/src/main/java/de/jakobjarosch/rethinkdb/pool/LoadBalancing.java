@@ -0,0 +1,16 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+
+/**
+ * Strategy used to pick a host when the pool is configured with multiple RethinkDB hosts.
+ */
+public enum LoadBalancing {
+    /**
+     * Picks the host with the least connections currently in use.
+     */
+    LEAST_OUTSTANDING,
+    /**
+     * Picks the host with the lowest observed query latency, weighted by the connections currently in use.
+     */
+    LOWEST_LATENCY
+}
@@ -16,9 +16,26 @@ public class PersistentConnection extends Connection {
         void free();
     }
 
+    @FunctionalInterface
+    public interface QueryListener {
+        /**
+         * @param durationNanos     The round trip time of the query.
+         * @param connectionFailure True when the query failed because of the connection (not the query itself).
+         */
+        void completed(long durationNanos, boolean connectionFailure);
+    }
+
+    private static final QueryListener NO_LISTENER = (durationNanos, connectionFailure) -> {
+    };
+
     private final Connection wrapped;
     private final CloseCallback closeCallback;
-    private boolean closed = false;
+    private final QueryListener queryListener;
+    private final boolean shared;
+    private final long borrowedAt = System.currentTimeMillis();
+    private volatile Throwable borrowSite;
+    private volatile boolean closed = false;
+    private volatile boolean reclaimed = false;
 
     public PersistentConnection(Connection wrapped) {
         this(wrapped, () -> {
@@ -26,25 +43,81 @@ public class PersistentConnection extends Connection {
     }
 
     public PersistentConnection(Connection wrapped, CloseCallback closeCallback) {
+        this(wrapped, closeCallback, NO_LISTENER);
+    }
+
+    public PersistentConnection(Connection wrapped, CloseCallback closeCallback, QueryListener queryListener) {
+        this(wrapped, closeCallback, queryListener, false);
+    }
+
+    /**
+     * @param shared True when the wrapped connection is shared with other leases, it is then never closed by a lease.
+     */
+    PersistentConnection(Connection wrapped, CloseCallback closeCallback, QueryListener queryListener, boolean shared) {
         super(new Builder());
         this.wrapped = wrapped;
         this.closeCallback = closeCallback;
+        this.queryListener = queryListener;
+        this.shared = shared;
     }
 
     @Override
     public void close() {
-        this.closed = true;
-        closeCallback.free();
+        release();
     }
 
     @Override
     public void close(boolean shouldNoreplyWait) {
-        this.closed = true;
-        closeCallback.free();
+        release();
+    }
+
+    /**
+     * @return The time in milliseconds since epoch at which the connection was borrowed.
+     */
+    long getBorrowedAt() {
+        return borrowedAt;
+    }
+
+    /**
+     * @return The stack of the borrower, only recorded when the leak detection is enabled.
+     */
+    Throwable getBorrowSite() {
+        return borrowSite;
+    }
+
+    void setBorrowSite(Throwable borrowSite) {
+        this.borrowSite = borrowSite;
+    }
+
+    /**
+     * Closes the connection on behalf of a borrower which leaked it, so the pool destroys it instead of
+     * handing it out again while the borrower might still use it (e.g. through an open cursor).
+     * A shared connection stays open for the other leases, only this lease is released.
+     */
+    void reclaim() {
+        reclaimed = true;
+        if (!shared) {
+            try {
+                wrapped.close(false);
+            } catch (ReqlDriverError e) {
+                // The connection is destroyed by the pool anyway.
+            }
+        }
+        release();
+    }
+
+    private synchronized void release() {
+        // Closing twice must not hand the same connection back to the pool twice.
+        if (!closed) {
+            this.closed = true;
+            closeCallback.free();
+        }
     }
 
     private void checkOpen() {
-        if (closed) {
+        if (reclaimed) {
+            throw new ReqlDriverError("Connection was reclaimed by the pool after it was held too long.");
+        } else if (closed) {
             throw new ReqlDriverError("Connection already returned to pool.");
         }
     }
@@ -95,13 +168,29 @@ public class PersistentConnection extends Connection {
     @Override
     public <T, P> T run(ReqlAst term, OptArgs globalOpts, Optional<Class<P>> pojoClass) {
         checkOpen();
-        return wrapped.run(term, globalOpts, pojoClass);
+        final long start = System.nanoTime();
+        try {
+            final T result = wrapped.run(term, globalOpts, pojoClass);
+            queryListener.completed(System.nanoTime() - start, false);
+            return result;
+        } catch (ReqlDriverError e) {
+            queryListener.completed(System.nanoTime() - start, true);
+            throw e;
+        }
     }
 
     @Override
     public <T, P> T run(ReqlAst term, OptArgs globalOpts, Optional<Class<P>> pojoClass, Optional<Long> timeout) {
         checkOpen();
-        return wrapped.run(term, globalOpts, pojoClass, timeout);
+        final long start = System.nanoTime();
+        try {
+            final T result = wrapped.run(term, globalOpts, pojoClass, timeout);
+            queryListener.completed(System.nanoTime() - start, false);
+            return result;
+        } catch (ReqlDriverError e) {
+            queryListener.completed(System.nanoTime() - start, true);
+            throw e;
+        }
     }
 
     @Override
@@ -0,0 +1,427 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+
+import com.rethinkdb.gen.exc.ReqlDriverError;
+import com.rethinkdb.net.Connection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * A partition of the {@link RethinkDBPool} with its own connections, limits and metrics.
+ * Connections of one partition are never handed out by another partition,
+ * so a partition can not exhaust the capacity of the others.
+ */
+class PoolPartition {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PoolPartition.class);
+
+    private static class Waiter {
+        final CompletableFuture<Connection> future = new CompletableFuture<>();
+        final long startRetrieve = System.nanoTime();
+        final Throwable borrowSite;
+
+        Waiter(Throwable borrowSite) {
+            this.borrowSite = borrowSite;
+        }
+    }
+
+    private final String name;
+    private final List<HostPool> hosts;
+    private final LoadBalancing loadBalancing;
+    private final CircuitBreaker circuitBreaker;
+    private final LeakDetector leakDetector;
+
+    private final LatencyRecorder waitTimes = new LatencyRecorder();
+    private final AtomicInteger nextHost = new AtomicInteger();
+
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger drainRequests = new AtomicInteger();
+
+    PoolPartition(String name,
+                  List<HostPool> hosts,
+                  LoadBalancing loadBalancing,
+                  CircuitBreaker circuitBreaker,
+                  LeakDetector leakDetector) {
+        this.name = name;
+        this.hosts = hosts;
+        this.loadBalancing = loadBalancing;
+        this.circuitBreaker = circuitBreaker;
+        this.leakDetector = leakDetector;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void shutdown() {
+        hosts.forEach(HostPool::close);
+
+        Waiter waiter;
+        while ((waiter = waiters.poll()) != null) {
+            waiter.future.completeExceptionally(new ReqlDriverError("Pool is not started."));
+        }
+    }
+
+    void warmUp() {
+        hosts.forEach(HostPool::warmUp);
+    }
+
+    void validate() {
+        hosts.stream().filter(h -> !h.isEjected()).forEach(HostPool::validate);
+    }
+
+    void detectLeaks() {
+        if (leakDetector != null) {
+            leakDetector.detect();
+        }
+    }
+
+    boolean isClosed() {
+        return hosts.get(0).isClosed();
+    }
+
+    Connection getConnection(int timeout) {
+        if (isClosed()) {
+            throw new ReqlDriverError("Pool is not started.");
+        }
+
+        final CircuitBreaker.Permission permission = circuitBreaker.tryAcquirePermission();
+        if (permission == CircuitBreaker.Permission.REJECTED) {
+            throw new ReqlDriverError("Circuit breaker is open, connection rejected.");
+        }
+
+        final long startRetrieve = System.nanoTime();
+        final long deadline = startRetrieve + TimeUnit.SECONDS.toNanos(timeout);
+        final Throwable borrowSite = leakDetector != null ? leakDetector.captureBorrowSite() : null;
+        Exception lastError = null;
+
+        // Any host with a free connection is preferred over waiting for the best host.
+        final List<HostPool> exhausted = new ArrayList<>();
+        for (HostPool host : selectHosts()) {
+            try {
+                return borrowed(borrow(host, 0, false, borrowSite), startRetrieve, permission);
+            } catch (NoSuchElementException e) {
+                exhausted.add(host);
+            } catch (Exception e) {
+                LOGGER.warn("Failed to retrieve connection from host {}.", host, e);
+                host.failed();
+                lastError = e;
+            }
+        }
+
+        // Wait for the best exhausted host, the others are tried once more when it timed out.
+        NoSuchElementException timeoutError = null;
+        for (HostPool host : exhausted) {
+            final long remainingMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+            try {
+                return borrowed(borrow(host, remainingMillis, false, borrowSite), startRetrieve, permission);
+            } catch (NoSuchElementException e) {
+                timeoutError = e;
+            } catch (Exception e) {
+                LOGGER.warn("Failed to retrieve connection from host {}.", host, e);
+                host.failed();
+                lastError = e;
+            }
+        }
+
+        if (timeoutError != null) {
+            // The hosts are healthy but have no free connection left within the timeout.
+            // A saturated pool is no failure, otherwise a load spike would open the circuit.
+            LOGGER.error("Failed to retrieve connection from partition {}.", name, timeoutError);
+            circuitBreaker.release(permission);
+            throw new ReqlDriverError("Failed to retrieve connection", timeoutError);
+        }
+        circuitBreaker.failure(permission);
+        LOGGER.error("Failed to retrieve connection from partition {}.", name, lastError);
+        throw new ReqlDriverError("Failed to retrieve connection", lastError);
+    }
+
+    /**
+     * Reports the single outcome of a served request, failures of other hosts were compensated by this one.
+     */
+    private Connection borrowed(Connection connection, long startRetrieve, CircuitBreaker.Permission permission) {
+        waitTimes.record(System.nanoTime() - startRetrieve);
+        circuitBreaker.success(permission);
+        return connection;
+    }
+
+    /**
+     * Only free connections which are open already are handed out on the calling thread and on threads returning
+     * a connection. New connections are opened by the connector, so no caller is blocked by a connection setup.
+     *
+     * @param timeout   Timeout in seconds.
+     * @param scheduler Runs the timeout of the request.
+     * @param connector Opens new connections.
+     */
+    CompletableFuture<Connection> getConnectionAsync(int timeout,
+                                                     ScheduledExecutorService scheduler,
+                                                     Executor connector) {
+        final Waiter waiter = new Waiter(leakDetector != null ? leakDetector.captureBorrowSite() : null);
+        if (isClosed()) {
+            waiter.future.completeExceptionally(new ReqlDriverError("Pool is not started."));
+            return waiter.future;
+        }
+
+        try {
+            final Connection connection = tryBorrow(waiter.borrowSite, true);
+            if (connection != null) {
+                waitTimes.record(System.nanoTime() - waiter.startRetrieve);
+                waiter.future.complete(connection);
+                return waiter.future;
+            }
+        } catch (ReqlDriverError e) {
+            waiter.future.completeExceptionally(e);
+            return waiter.future;
+        }
+
+        waiters.add(waiter);
+        final ScheduledFuture<?> timeoutTask = scheduler.schedule(() -> {
+            if (waiter.future.completeExceptionally(new ReqlDriverError("Timeout waiting for a free connection."))) {
+                waiters.remove(waiter);
+            }
+        }, timeout, TimeUnit.SECONDS);
+        waiter.future.whenComplete((connection, e) -> timeoutTask.cancel(false));
+        if (!hosts.stream().allMatch(HostPool::isFull)) {
+            connector.execute(() -> connect(waiter));
+        }
+
+        // A connection might have been returned before the waiter was queued.
+        drainWaiters();
+        return waiter.future;
+    }
+
+    ConnectionPoolMetrics getMetrics() {
+        return new ConnectionPoolMetrics(hosts.stream().mapToInt(HostPool::getConnections).sum(),
+                hosts.stream().mapToInt(HostPool::getFreeConnections).sum(),
+                hosts.stream().mapToInt(HostPool::getMaxConnections).sum(),
+                waitTimes.snapshot(),
+                hosts.stream().map(HostPool::getMetrics).collect(Collectors.toList()),
+                circuitBreaker.getState(),
+                getHealth(),
+                leakDetector != null ? leakDetector.getLeakedConnections() : 0,
+                leakDetector != null ? leakDetector.getLeakSites() : Collections.emptyMap());
+    }
+
+    LatencyRecorder.Snapshot getWaitTimes(long windowMillis) {
+        return waitTimes.snapshot(windowMillis);
+    }
+
+    /**
+     * @return The share of connections in use of all hosts which are not ejected, between 0 and 1.
+     */
+    double getUtilization() {
+        int connections = 0;
+        int maxConnections = 0;
+        for (HostPool host : hosts) {
+            if (!host.isEjected()) {
+                connections += host.getConnections();
+                maxConnections += host.getMaxConnections();
+            }
+        }
+        return maxConnections == 0 ? 0 : (double) connections / maxConnections;
+    }
+
+    int getMaxConnectionsPerHost() {
+        return hosts.get(0).getMaxTotal();
+    }
+
+    void setMaxConnectionsPerHost(int maxConnections) {
+        hosts.forEach(h -> h.setMaxTotal(maxConnections));
+    }
+
+    /**
+     * @return All hosts in the order in which they should be tried. Ejected hosts are only
+     * returned when no other host is available, the one re-admitted first comes first.
+     */
+    private List<HostPool> selectHosts() {
+        if (hosts.size() == 1) {
+            return hosts;
+        }
+
+        // Rotate the start position, so hosts with an equal score share the load.
+        final int offset = Math.floorMod(nextHost.getAndIncrement(), hosts.size());
+        final List<HostPool> available = new ArrayList<>(hosts.size());
+        final List<HostPool> ejected = new ArrayList<>();
+        for (int i = 0; i < hosts.size(); i++) {
+            final HostPool host = hosts.get((offset + i) % hosts.size());
+            (host.isEjected() ? ejected : available).add(host);
+        }
+
+        available.sort(loadBalancing == LoadBalancing.LOWEST_LATENCY
+                ? Comparator.comparingDouble(h -> h.getLatency() * (h.getOutstanding() + 1))
+                : Comparator.comparingInt(HostPool::getOutstanding));
+        ejected.sort(Comparator.comparingLong(HostPool::getEjectedUntil));
+        available.addAll(ejected);
+        return available;
+    }
+
+    /**
+     * Borrows a connection of the host, which is tracked by the leak detector if enabled.
+     *
+     * @param idleOnly Whether only connections which are open already should be handed out, the timeout is ignored then.
+     */
+    private Connection borrow(HostPool host, long timeoutMillis, boolean idleOnly, Throwable borrowSite)
+            throws Exception {
+        final AtomicReference<PersistentConnection> lease = new AtomicReference<>();
+        final PersistentConnection.CloseCallback onRelease = leakDetector == null ? this::connectionReleased : () -> {
+            leakDetector.released(lease.get());
+            connectionReleased();
+        };
+        final PersistentConnection connection = idleOnly
+                ? host.borrowIdle(onRelease)
+                : host.borrow(timeoutMillis, onRelease);
+        if (leakDetector != null) {
+            lease.set(connection);
+            leakDetector.borrowed(connection, borrowSite);
+        }
+        return connection;
+    }
+
+    /**
+     * @param borrowSite The stack of the borrower, null when the leak detection is disabled.
+     * @param idleOnly   Whether only connections which are open already should be handed out.
+     * @return A connection of the first host which has a free connection, or null when all hosts are exhausted.
+     * @throws ReqlDriverError Thrown when all hosts failed to provide a connection.
+     */
+    private Connection tryBorrow(Throwable borrowSite, boolean idleOnly) {
+        final CircuitBreaker.Permission permission = circuitBreaker.tryAcquirePermission();
+        if (permission == CircuitBreaker.Permission.REJECTED) {
+            throw new ReqlDriverError("Circuit breaker is open, connection rejected.");
+        }
+
+        Exception lastError = null;
+        boolean exhausted = false;
+        for (HostPool host : selectHosts()) {
+            try {
+                final Connection connection = borrow(host, 0, idleOnly, borrowSite);
+                circuitBreaker.success(permission);
+                return connection;
+            } catch (NoSuchElementException e) {
+                exhausted = true;
+            } catch (Exception e) {
+                LOGGER.warn("Failed to retrieve connection from host {}.", host, e);
+                host.failed();
+                lastError = e;
+            }
+        }
+
+        // A request reports a single outcome: exhausted hosts are no failure, only failing hosts are.
+        if (exhausted) {
+            circuitBreaker.release(permission);
+            return null;
+        }
+        circuitBreaker.failure(permission);
+        throw new ReqlDriverError("Failed to retrieve connection", lastError);
+    }
+
+    /**
+     * Runs on the connector. Opens a connection if a host has capacity left and hands it to the waiter.
+     */
+    private void connect(Waiter waiter) {
+        if (waiter.future.isDone()) {
+            return;
+        }
+
+        final Connection connection;
+        try {
+            connection = tryBorrow(waiter.borrowSite, false);
+        } catch (ReqlDriverError e) {
+            if (waiter.future.completeExceptionally(e)) {
+                waiters.remove(waiter);
+            }
+            return;
+        }
+        if (connection == null) {
+            // All hosts are exhausted, the waiter is served by the next returned connection.
+            return;
+        }
+
+        if (waiter.future.complete(connection)) {
+            waiters.remove(waiter);
+            waitTimes.record(System.nanoTime() - waiter.startRetrieve);
+        } else {
+            // The waiter was served by a returned connection or timed out, the next waiter gets this one.
+            connection.close();
+        }
+    }
+
+    private void connectionReleased() {
+        if (!waiters.isEmpty()) {
+            drainWaiters();
+        }
+    }
+
+    /**
+     * Hands free connections to queued waiters. Only one thread drains at a time, concurrent
+     * requests are counted and handled by the draining thread before it stops.
+     */
+    private void drainWaiters() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            Waiter waiter;
+            while ((waiter = waiters.peek()) != null) {
+                if (waiter.future.isDone()) {
+                    // Timed out or canceled by the caller.
+                    waiters.remove(waiter);
+                    continue;
+                }
+
+                final Connection connection;
+                try {
+                    connection = tryBorrow(waiter.borrowSite, true);
+                } catch (ReqlDriverError e) {
+                    waiters.remove(waiter);
+                    waiter.future.completeExceptionally(e);
+                    continue;
+                }
+                if (connection == null) {
+                    break;
+                }
+
+                waiters.remove(waiter);
+                if (waiter.future.complete(connection)) {
+                    waitTimes.record(System.nanoTime() - waiter.startRetrieve);
+                } else {
+                    connection.close();
+                }
+            }
+            missed = drainRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private ConnectionPoolMetrics.PoolHealth getHealth() {
+        if (isClosed()) {
+            return ConnectionPoolMetrics.PoolHealth.STOPPED;
+        } else if (circuitBreaker.getState() == ConnectionPoolMetrics.CircuitState.OPEN) {
+            return ConnectionPoolMetrics.PoolHealth.UNAVAILABLE;
+        } else if (circuitBreaker.getState() == ConnectionPoolMetrics.CircuitState.HALF_OPEN) {
+            return ConnectionPoolMetrics.PoolHealth.RECOVERING;
+        } else if (hosts.stream().anyMatch(HostPool::isEjected)) {
+            return ConnectionPoolMetrics.PoolHealth.DEGRADED;
+        } else if (hosts.stream().allMatch(HostPool::isFull)) {
+            return ConnectionPoolMetrics.PoolHealth.FULL;
+        } else {
+            return ConnectionPoolMetrics.PoolHealth.HEALTHY;
+        }
+    }
+}
@@ -3,35 +3,97 @@ package de.jakobjarosch.rethinkdb.pool;
 
 import com.rethinkdb.gen.exc.ReqlDriverError;
 import com.rethinkdb.net.Connection;
-import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 /**
  * The {@link RethinkDBPool} is able to serve RethinkDB connection in a multi-threaded environment.
  * Connections can be retrieved by calling {@link #getConnection()}.
  * When a connection should be returned to the pool, it is enough to call {@link Connection#close()},
  * or use a try-resource scope.
+ * <br>
+ * When the pool is built with {@link RethinkDBPoolBuilder#multiplexed(int)} connections are not leased
+ * exclusively, instead all queries are multiplexed over a small set of shared connections.
+ * <br>
+ * When multiple hosts are configured every host has its own connections, a connection is taken
+ * from the host selected by the {@link LoadBalancing} strategy. Failing hosts are skipped.
+ * <br>
+ * Connections can also be retrieved without blocking by calling {@link #getConnectionAsync()}.
+ * <br>
+ * The pool can be split into named partitions (see {@link RethinkDBPoolBuilder#partition(String, int, int, int)}),
+ * every partition has its own connections, limits and metrics. Requesting a partition which is not
+ * configured falls back to the {@link #DEFAULT_PARTITION}.
  */
 public class RethinkDBPool {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RethinkDBPool.class);
 
-    private final GenericObjectPool<Connection> pool;
+    /**
+     * The partition used for all connections when no partition is requested.
+     */
+    public static final String DEFAULT_PARTITION = "default";
+
+    /**
+     * The partition used for long living connections, e.g. change feeds.
+     */
+    public static final String STREAMING_PARTITION = "streaming";
+
+    private final Map<String, PoolPartition> partitions;
+    private final PoolPartition defaultPartition;
     private final int defaultTimeout;
 
-    private final ConnectionStats stats = new ConnectionStats();
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ExecutorService connector;
 
-    RethinkDBPool(GenericObjectPool<Connection> pool,
+    RethinkDBPool(Map<String, PoolPartition> partitions,
+                  AdaptivePoolSizer sizer,
+                  long validationInterval,
+                  boolean leakDetection,
                   int defaultTimeout) {
-        this.pool = pool;
+        this.partitions = partitions;
+        this.defaultPartition = partitions.get(DEFAULT_PARTITION);
         this.defaultTimeout = defaultTimeout;
+
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "rethinkdb-pool-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        // Opens connections for asynchronous requests, so their callers are not blocked by a connection setup.
+        this.connector = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "rethinkdb-pool-connector");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (sizer != null) {
+            this.scheduler.scheduleWithFixedDelay(sizer, AdaptivePoolSizer.INTERVAL_MILLIS,
+                    AdaptivePoolSizer.INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        if (validationInterval > 0) {
+            this.scheduler.scheduleWithFixedDelay(this::validate, validationInterval,
+                    validationInterval, TimeUnit.MILLISECONDS);
+        }
+        if (leakDetection) {
+            this.scheduler.scheduleWithFixedDelay(this::detectLeaks, LeakDetector.INTERVAL_MILLIS,
+                    LeakDetector.INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
     }
 
     @SuppressWarnings("unused")
     public void shutdown() {
-        pool.close();
-        pool.setTimeBetweenEvictionRunsMillis(-1);
+        partitions.values().forEach(PoolPartition::shutdown);
+        scheduler.shutdownNow();
+        connector.shutdownNow();
     }
 
     /**
@@ -50,39 +112,111 @@ public class RethinkDBPool {
      */
     @SuppressWarnings("unused")
     public Connection getConnection(int timeout) {
-        if (pool.isClosed()) {
-            throw new ReqlDriverError("Pool is not started.");
-        }
+        return defaultPartition.getConnection(timeout);
+    }
 
-        try {
-            final long startRetrieve = System.currentTimeMillis();
-            final Connection connection = pool.borrowObject(timeout * 1000);
-            stats.add(System.currentTimeMillis() - startRetrieve);
-
-            return new PersistentConnection(connection, () -> pool.returnObject(connection));
-        } catch (Exception e) {
-            LOGGER.error("Failed to retrieve connection from pool.", e);
-            throw new ReqlDriverError("Failed to retrieve connection", e);
-        }
+    /**
+     * @param partition The name of the partition.
+     * @return Returns a free connection of the partition within the default timeout.
+     * @throws ReqlDriverError Throws error when no free connection is available within the default timeout.
+     */
+    @SuppressWarnings("unused")
+    public Connection getConnection(String partition) {
+        return getConnection(partition, defaultTimeout);
     }
 
+    /**
+     * @param partition The name of the partition.
+     * @param timeout   Timeout in seconds.
+     * @return Returns a free connection of the partition within the specified timeout.
+     * @throws ReqlDriverError Throws error when no free connection is available within specified timeout.
+     */
+    @SuppressWarnings("unused")
+    public Connection getConnection(String partition, int timeout) {
+        return getPartition(partition).getConnection(timeout);
+    }
+
+    /**
+     * @return Returns a future which is completed with a free connection within the default timeout.
+     * @see #getConnectionAsync(int)
+     */
+    @SuppressWarnings("unused")
+    public CompletableFuture<Connection> getConnectionAsync() {
+        return getConnectionAsync(defaultTimeout);
+    }
+
+    /**
+     * Retrieves a connection without blocking the calling thread. When no connection is free the request
+     * is queued and completed as soon as another connection is returned to the pool, or a new connection
+     * was opened in the background.
+     * <br>
+     * Note: Dependent stages may be executed by the thread returning the connection.
+     *
+     * @param timeout Timeout in seconds.
+     * @return Returns a future which is completed with a free connection within the specified timeout.
+     * The future completes exceptionally with a {@link ReqlDriverError} when no connection is available
+     * within the timeout.
+     */
+    @SuppressWarnings("unused")
+    public CompletableFuture<Connection> getConnectionAsync(int timeout) {
+        return defaultPartition.getConnectionAsync(timeout, scheduler, connector);
+    }
+
+    /**
+     * @param partition The name of the partition.
+     * @param timeout   Timeout in seconds.
+     * @return Returns a future which is completed with a free connection of the partition within the specified timeout.
+     * @see #getConnectionAsync(int)
+     */
+    @SuppressWarnings("unused")
+    public CompletableFuture<Connection> getConnectionAsync(String partition, int timeout) {
+        return getPartition(partition).getConnectionAsync(timeout, scheduler, connector);
+    }
+
+    /**
+     * @return Returns the metrics of the default partition.
+     */
     @SuppressWarnings("unused")
     public ConnectionPoolMetrics getMetrics() {
-        return new ConnectionPoolMetrics(pool.getNumActive(),
-                pool.getNumIdle(),
-                pool.getMaxTotal(),
-                stats.getConnectionsPerSecond(),
-                stats.getAverage(),
-                getHealth());
+        return defaultPartition.getMetrics();
+    }
+
+    /**
+     * @param partition The name of the partition.
+     * @return Returns the metrics of the partition.
+     */
+    @SuppressWarnings("unused")
+    public ConnectionPoolMetrics getMetrics(String partition) {
+        return getPartition(partition).getMetrics();
+    }
+
+    /**
+     * @return The names of all configured partitions, including the {@link #DEFAULT_PARTITION}.
+     */
+    @SuppressWarnings("unused")
+    public Set<String> getPartitions() {
+        return partitions.keySet();
     }
 
-    private ConnectionPoolMetrics.PoolHealth getHealth() {
-        if (pool.isClosed()) {
-            return ConnectionPoolMetrics.PoolHealth.STOPPED;
-        } else if (pool.getNumActive() >= pool.getMaxTotal()) {
-            return ConnectionPoolMetrics.PoolHealth.FULL;
-        } else {
-            return ConnectionPoolMetrics.PoolHealth.HEALTHY;
+    private void validate() {
+        try {
+            partitions.values().forEach(PoolPartition::validate);
+        } catch (RuntimeException e) {
+            // An exception would cancel the scheduled validation.
+            LOGGER.warn("Failed to validate connections.", e);
         }
     }
+
+    private void detectLeaks() {
+        try {
+            partitions.values().forEach(PoolPartition::detectLeaks);
+        } catch (RuntimeException e) {
+            // An exception would cancel the scheduled leak detection.
+            LOGGER.warn("Failed to detect leaked connections.", e);
+        }
+    }
+
+    private PoolPartition getPartition(String name) {
+        return partitions.getOrDefault(name, defaultPartition);
+    }
 }
@@ -6,10 +6,42 @@ import com.rethinkdb.net.Connection;
 import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 public class RethinkDBPoolBuilder {
 
+    private static class Host {
+        final String hostname;
+        final int port;
+
+        Host(String hostname, int port) {
+            this.hostname = hostname;
+            this.port = port;
+        }
+    }
+
+    private static class PartitionLimits {
+        final int maxConnections;
+        final int minFreeConnections;
+        final int maxFreeConnections;
+
+        PartitionLimits(int maxConnections, int minFreeConnections, int maxFreeConnections) {
+            this.maxConnections = maxConnections;
+            this.minFreeConnections = minFreeConnections;
+            this.maxFreeConnections = maxFreeConnections;
+        }
+    }
+
     private String hostname = "127.0.0.1";
     private int port = 28015;
+    private final List<Host> hosts = new ArrayList<>();
+    private LoadBalancing loadBalancing = LoadBalancing.LEAST_OUTSTANDING;
+    private int maxHostFailures = 3;
+    private int hostEjectionTime = 30;
     private String username = "admin";
     private String password = "";
     private String database = "test";
@@ -18,6 +50,19 @@ public class RethinkDBPoolBuilder {
     private int minFreeConnections = 1;
     private int maxFreeConnections = 5;
     private int timeout = 60;
+    private int sharedConnections = 0;
+    private int maxLeasesPerConnection = Integer.MAX_VALUE;
+    private final Map<String, PartitionLimits> partitions = new LinkedHashMap<>();
+    private int adaptiveMinConnections = 0;
+    private int adaptiveMaxConnections = 0;
+    private int failureRateThreshold = 0;
+    private int minimumCalls = 0;
+    private int circuitOpenTime = 0;
+    private boolean warmUp = true;
+    private int validationInterval = 30;
+    private int maxConnectionAge = 0;
+    private int leakThreshold = 0;
+    private boolean reclaimLeaks = false;
 
     private GenericObjectPoolConfig config;
 
@@ -35,6 +80,47 @@ public class RethinkDBPoolBuilder {
         return this;
     }
 
+    /**
+     * Adds a host of a RethinkDB cluster, when at least one host is added the
+     * {@link #hostname(String)} and {@link #port(int)} settings are ignored.
+     * Connection limits apply to every host separately.
+     *
+     * @param hostname The hostname of the cluster node.
+     * @param port     The port of the cluster node.
+     * @return Returns the builder
+     */
+    @SuppressWarnings("unused")
+    public RethinkDBPoolBuilder addHost(String hostname, int port) {
+        if (port < 1 || port > 65535)
+            throw new ReqlUserError("Constraint violated: 1 <= port <= 65535");
+        this.hosts.add(new Host(hostname, port));
+        return this;
+    }
+
+    @SuppressWarnings("unused")
+    public RethinkDBPoolBuilder loadBalancing(LoadBalancing loadBalancing) {
+        this.loadBalancing = loadBalancing;
+        return this;
+    }
+
+    /**
+     * A host is ejected after the given number of consecutive failures and re-admitted after the ejection time.
+     *
+     * @param maxHostFailures  Consecutive connection failures until the host is ejected.
+     * @param hostEjectionTime Time in seconds the host is not used after being ejected.
+     * @return Returns the builder
+     */
+    @SuppressWarnings("unused")
+    public RethinkDBPoolBuilder hostEjection(int maxHostFailures, int hostEjectionTime) {
+        if (maxHostFailures < 1)
+            throw new ReqlUserError("Constraint violated: maxHostFailures >= 1");
+        if (hostEjectionTime < 1)
+            throw new ReqlUserError("Ejection time must be at least 1 second");
+        this.maxHostFailures = maxHostFailures;
+        this.hostEjectionTime = hostEjectionTime;
+        return this;
+    }
+
     @SuppressWarnings("unused")
     public RethinkDBPoolBuilder username(String username) {
         this.username = username;
@@ -86,6 +172,164 @@ public class RethinkDBPoolBuilder {
         return this;
     }
 
+    /**
+     * Adds a named partition with its own connections and limits. The limits of the builder apply
+     * to the {@link RethinkDBPool#DEFAULT_PARTITION}, all other settings apply to every partition.
+     * E.g. a {@link RethinkDBPool#STREAMING_PARTITION} keeps long living change feeds from exhausting
+     * the connections of short queries.
+     *
+     * @param name               The name of the partition.
+     * @param maxConnections     Maximum connections of the partition.
+     * @param minFreeConnections Minimum free connections of the partition.
+     * @param maxFreeConnections Maximum free connections of the partition.
+     * @return Returns the builder
+     */
+    @SuppressWarnings("unused")
+    public RethinkDBPoolBuilder partition(String name, int maxConnections, int minFreeConnections, int maxFreeConnections) {
+        if (RethinkDBPool.DEFAULT_PARTITION.equals(name))
+            throw new ReqlUserError("The default partition is configured by the builder limits.");
+        checkConnectionConstraints(maxConnections, minFreeConnections, maxFreeConnections);
+        this.partitions.put(name, new PartitionLimits(maxConnections, minFreeConnections, maxFreeConnections));
+        return this;
+    }
+
+    /**
+     * Enables the adaptive sizing of the default partition. The maximum connections per host start at
+     * {@link #maxConnections(int)} and are periodically adjusted within the given bounds, depending on
+     * the observed wait time to obtain a connection and the utilization of the partition.
+     *
+     * @param minConnections Lower bound of the maximum connections.
+     * @param maxConnections Upper bound of the maximum connections.
+     * @return Returns the builder
+     */
+    @SuppressWarnings("unused")
+    public RethinkDBPoolBuilder adaptiveSizing(int minConnections, int maxConnections) {
+        if (minConnections < 1)
+            throw new ReqlUserError("Constraint violated: minConnections >= 1");
+        if (maxConnections < minConnections)
+            throw new ReqlUserError("Constraint violated: maxConnections >= minConnections");
+        this.adaptiveMinConnections = minConnections;
+        this.adaptiveMaxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * Enables the circuit breaker. When the share of failed connection attempts and queries within
+     * 10 seconds reaches the threshold, connections are rejected immediately for the open time.
+     * Afterwards a single trial request decides whether connections are handed out again.
+     *
+     * @param failureRateThreshold Failure rate in percent at which the circuit opens.
+     * @param minimumCalls         Minimum number of calls within 10 seconds before the failure rate is evaluated.
+     * @param circuitOpenTime      Time in seconds connections are rejected.
+     * @return Returns the builder
+     */
+    @SuppressWarnings("unused")
+    public RethinkDBPoolBuilder circuitBreaker(int failureRateThreshold, int minimumCalls, int circuitOpenTime) {
+        if (failureRateThreshold < 1 || failureRateThreshold > 100)
+            throw new ReqlUserError("Constraint violated: 1 <= failureRateThreshold <= 100");
+        if (minimumCalls < 1)
+            throw new ReqlUserError("Constraint violated: minimumCalls >= 1");
+        if (circuitOpenTime < 1)
+            throw new ReqlUserError("Open time must be at least 1 second");
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumCalls = minimumCalls;
+        this.circuitOpenTime = circuitOpenTime;
+        return this;
+    }
+
+    /**
+     * Enables the multiplexed mode. Instead of leasing connections exclusively all queries are
+     * multiplexed over the given number of shared connections. Connection limits are ignored in this mode.
+     *
+     * @param sharedConnections The number of shared connections, 0 disables the multiplexed mode.
+     * @return Returns the builder
+     */
+    @SuppressWarnings("unused")
+    public RethinkDBPoolBuilder multiplexed(int sharedConnections) {
+        return multiplexed(sharedConnections, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Enables the multiplexed mode with a limited number of leases per shared connection, see {@link #multiplexed(int)}.
+     * When all shared connections carry the maximum leases, further requests wait up to their timeout.
+     *
+     * @param sharedConnections      The number of shared connections, 0 disables the multiplexed mode.
+     * @param maxLeasesPerConnection Maximum number of concurrent leases per shared connection.
+     * @return Returns the builder
+     */
+    @SuppressWarnings("unused")
+    public RethinkDBPoolBuilder multiplexed(int sharedConnections, int maxLeasesPerConnection) {
+        if (sharedConnections < 0)
+            throw new ReqlUserError("Constraint violated: sharedConnections >= 0");
+        if (maxLeasesPerConnection < 1)
+            throw new ReqlUserError("Constraint violated: maxLeasesPerConnection >= 1");
+        this.sharedConnections = sharedConnections;
+        this.maxLeasesPerConnection = maxLeasesPerConnection;
+        return this;
+    }
+
+    /**
+     * When enabled the minimum free connections of every partition are opened by {@link #build()},
+     * instead of being opened by the first requests. Enabled by default.
+     *
+     * @param warmUp Whether connections are opened when the pool is built.
+     * @return Returns the builder
+     */
+    @SuppressWarnings("unused")
+    public RethinkDBPoolBuilder warmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+        return this;
+    }
+
+    /**
+     * Free connections are periodically pinged in the background, connections which do not answer
+     * are replaced before they are handed out. The default interval is 30 seconds.
+     * When a custom config is set, its eviction settings are used for exclusive connections instead.
+     *
+     * @param validationInterval Interval in seconds, 0 disables the background validation.
+     * @return Returns the builder
+     */
+    @SuppressWarnings("unused")
+    public RethinkDBPoolBuilder validationInterval(int validationInterval) {
+        if (validationInterval < 0)
+            throw new ReqlUserError("Constraint violated: validationInterval >= 0");
+        this.validationInterval = validationInterval;
+        return this;
+    }
+
+    /**
+     * Connections are replaced by the background validation after the given age, e.g. to
+     * follow DNS changes or to avoid idle timeouts of proxies.
+     *
+     * @param maxConnectionAge Age in seconds, 0 keeps connections forever.
+     * @return Returns the builder
+     */
+    @SuppressWarnings("unused")
+    public RethinkDBPoolBuilder maxConnectionAge(int maxConnectionAge) {
+        if (maxConnectionAge < 0)
+            throw new ReqlUserError("Constraint violated: maxConnectionAge >= 0");
+        this.maxConnectionAge = maxConnectionAge;
+        return this;
+    }
+
+    /**
+     * Enables the leak detection. The stack of every borrower is recorded, connections which are not returned
+     * within the threshold are logged and counted per call site, see {@link ConnectionPoolMetrics#getLeakSites()}.
+     * Recording the stack has a cost, so this is meant for debugging.
+     *
+     * @param leakThreshold Time in seconds after which a connection which was not returned is considered leaked.
+     * @param reclaimLeaks  Whether leaked connections are closed and destroyed, further use of them fails.
+     * @return Returns the builder
+     */
+    @SuppressWarnings("unused")
+    public RethinkDBPoolBuilder leakDetection(int leakThreshold, boolean reclaimLeaks) {
+        if (leakThreshold < 1)
+            throw new ReqlUserError("Leak threshold must be at least 1 second");
+        this.leakThreshold = leakThreshold;
+        this.reclaimLeaks = reclaimLeaks;
+        return this;
+    }
+
     @SuppressWarnings("unused")
     public RethinkDBPoolBuilder timeout(int timeout) {
         if (timeout < 1)
@@ -96,19 +340,64 @@ public class RethinkDBPoolBuilder {
 
     @SuppressWarnings("unused")
     public RethinkDBPool build() {
-        ConnectionFactory factory = new ConnectionFactory(hostname, port, username, password, database);
-
-
         GenericObjectPoolConfig config = this.config;
         if (config == null) {
             config = new GenericObjectPoolConfig();
             config.setMaxTotal(maxConnections);
             config.setMinIdle(minFreeConnections);
             config.setMaxIdle(maxFreeConnections);
+            if (validationInterval > 0) {
+                // Validate all free connections on every run, the evictor also re-creates the minimum free connections.
+                config.setTestWhileIdle(true);
+                config.setTimeBetweenEvictionRunsMillis(validationInterval * 1000L);
+                config.setNumTestsPerEvictionRun(-1);
+            }
+        }
+
+        CircuitBreaker circuitBreaker = failureRateThreshold > 0
+                ? new CircuitBreaker(failureRateThreshold / 100.0, minimumCalls, circuitOpenTime * 1000L)
+                : CircuitBreaker.disabled();
+
+        Map<String, PoolPartition> partitions = new LinkedHashMap<>();
+        PoolPartition defaultPartition = buildPartition(RethinkDBPool.DEFAULT_PARTITION, config, circuitBreaker);
+        partitions.put(RethinkDBPool.DEFAULT_PARTITION, defaultPartition);
+        for (Map.Entry<String, PartitionLimits> partition : this.partitions.entrySet()) {
+            GenericObjectPoolConfig partitionConfig = config.clone();
+            partitionConfig.setMaxTotal(partition.getValue().maxConnections);
+            partitionConfig.setMinIdle(partition.getValue().minFreeConnections);
+            partitionConfig.setMaxIdle(partition.getValue().maxFreeConnections);
+            partitions.put(partition.getKey(), buildPartition(partition.getKey(), partitionConfig, circuitBreaker));
         }
 
-        GenericObjectPool<Connection> pool = new GenericObjectPool<>(factory, config);
-        return new RethinkDBPool(pool, timeout);
+        AdaptivePoolSizer sizer = null;
+        if (adaptiveMaxConnections > 0 && sharedConnections == 0) {
+            int initial = Math.max(adaptiveMinConnections, Math.min(adaptiveMaxConnections, config.getMaxTotal()));
+            defaultPartition.setMaxConnectionsPerHost(initial);
+            sizer = new AdaptivePoolSizer(defaultPartition, adaptiveMinConnections, adaptiveMaxConnections);
+        }
+        if (warmUp) {
+            partitions.values().forEach(PoolPartition::warmUp);
+        }
+        long sharedValidationInterval = sharedConnections > 0 ? validationInterval * 1000L : 0;
+        return new RethinkDBPool(partitions, sizer, sharedValidationInterval, leakThreshold > 0, timeout);
+    }
+
+    private PoolPartition buildPartition(String name, GenericObjectPoolConfig config, CircuitBreaker circuitBreaker) {
+        List<Host> hosts = this.hosts.isEmpty() ? Collections.singletonList(new Host(hostname, port)) : this.hosts;
+        List<HostPool> hostPools = new ArrayList<>();
+        for (Host host : hosts) {
+            ConnectionFactory factory = new ConnectionFactory(host.hostname, host.port, username, password, database,
+                    maxConnectionAge * 1000L);
+            GenericObjectPool<Connection> pool = new GenericObjectPool<>(factory, config);
+            SharedConnections shared = sharedConnections > 0
+                    ? new SharedConnections(factory, sharedConnections, maxLeasesPerConnection) : null;
+            hostPools.add(new HostPool(host.hostname, host.port, pool, shared,
+                    maxHostFailures, hostEjectionTime * 1000L, circuitBreaker));
+        }
+        // Change feeds hold their connection as long as they are subscribed, so streaming leases are no leaks.
+        LeakDetector leakDetector = leakThreshold > 0 && !RethinkDBPool.STREAMING_PARTITION.equals(name)
+                ? new LeakDetector(leakThreshold * 1000L, reclaimLeaks) : null;
+        return new PoolPartition(name, hostPools, loadBalancing, circuitBreaker, leakDetector);
     }
 
     private void checkConnectionConstraints(int maxConnections, int minFreeConnections, int maxFreeConnections) {
@@ -0,0 +1,344 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+
+import com.rethinkdb.gen.exc.ReqlDriverError;
+import com.rethinkdb.net.Connection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A small, fixed set of connections which are shared between all threads.
+ * The RethinkDB wire protocol tags every query with a token, so a single socket is able
+ * to carry many in-flight queries at the same time. Instead of leasing a connection exclusively
+ * every lease is placed on the shared connection with the least in-flight leases.
+ * <br>
+ * The leases per connection can be limited. When all connections carry the maximum leases,
+ * further leases wait for a lease to be released, up to their timeout.
+ */
+class SharedConnections {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedConnections.class);
+
+    private final ConnectionFactory factory;
+    private final int maxLeases;
+    private final AtomicReferenceArray<Connection> connections;
+    private final AtomicIntegerArray leases;
+    private final AtomicLongArray createdAt;
+
+    // Only one connection is opened at a time, leases of a slot being opened wait for it.
+    private final ReentrantLock connectLock = new ReentrantLock();
+    private final ReentrantLock leaseLock = new ReentrantLock();
+    private final Condition leaseReleased = leaseLock.newCondition();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param factory   Opens the shared connections.
+     * @param size      The number of shared connections.
+     * @param maxLeases Maximum number of leases per connection.
+     */
+    SharedConnections(ConnectionFactory factory, int size, int maxLeases) {
+        this.factory = factory;
+        this.maxLeases = maxLeases;
+        this.connections = new AtomicReferenceArray<>(size);
+        this.leases = new AtomicIntegerArray(size);
+        this.createdAt = new AtomicLongArray(size);
+    }
+
+    /**
+     * @param timeoutMillis Maximum time to wait for a lease, 0 does not wait at all.
+     * @param closeCallback Called after the lease has been released.
+     * @param queryListener Notified about every query run on the lease.
+     * @return Returns a lease on the least used shared connection, closing the lease does not close the socket.
+     * @throws NoSuchElementException Thrown when no lease was available within the timeout.
+     * @throws ReqlDriverError        Throws error when the shared connection could not be (re-)established.
+     */
+    PersistentConnection acquire(long timeoutMillis,
+                                 PersistentConnection.CloseCallback closeCallback,
+                                 PersistentConnection.QueryListener queryListener) {
+        if (closed) {
+            throw new ReqlDriverError("Pool is not started.");
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final int slot = reserveSlot(deadline);
+        final Connection connection;
+        try {
+            connection = openConnection(slot, deadline);
+        } catch (RuntimeException e) {
+            releaseSlot(slot);
+            throw e;
+        }
+        return lease(slot, connection, closeCallback, queryListener);
+    }
+
+    /**
+     * Never establishes a connection, so the caller is not blocked by a connection setup.
+     *
+     * @param closeCallback Called after the lease has been released.
+     * @param queryListener Notified about every query run on the lease.
+     * @return Returns a lease on the least used connection which is open already.
+     * @throws NoSuchElementException Thrown when no open connection has a lease left.
+     */
+    PersistentConnection acquireOpen(PersistentConnection.CloseCallback closeCallback,
+                                     PersistentConnection.QueryListener queryListener) {
+        if (closed) {
+            throw new ReqlDriverError("Pool is not started.");
+        }
+
+        final int slot = tryReserveSlot(true);
+        if (slot < 0) {
+            throw new NoSuchElementException("No lease on an open shared connection left.");
+        }
+        // The connection might have been closed or replaced since the slot was reserved.
+        final Connection connection = connections.get(slot);
+        if (connection == null || !connection.isOpen()) {
+            releaseSlot(slot);
+            throw new NoSuchElementException("No lease on an open shared connection left.");
+        }
+        return lease(slot, connection, closeCallback, queryListener);
+    }
+
+    /**
+     * Opens missing connections and replaces connections which do not answer a ping anymore.
+     * Connections older than the maximum connection age are replaced once they carry no lease,
+     * so in-flight queries are not aborted.
+     */
+    void validate() {
+        final long maxAge = factory.getMaxConnectionAge();
+        for (int i = 0; i < connections.length() && !closed; i++) {
+            final Connection connection = connections.get(i);
+            final boolean expired = maxAge > 0 && leases.get(i) == 0
+                    && System.currentTimeMillis() - createdAt.get(i) > maxAge;
+            if (connection != null && !expired && ConnectionFactory.ping(connection)) {
+                continue;
+            }
+
+            connectLock.lock();
+            try {
+                replaceConnection(i, connection);
+            } catch (ReqlDriverError e) {
+                LOGGER.warn("Failed to open shared connection in slot {}.", i, e);
+            } finally {
+                connectLock.unlock();
+            }
+        }
+    }
+
+    void close() {
+        closed = true;
+        for (int i = 0; i < connections.length(); i++) {
+            final Connection connection = connections.getAndSet(i, null);
+            if (connection != null) {
+                connection.close();
+            }
+        }
+
+        leaseLock.lock();
+        try {
+            leaseReleased.signalAll();
+        } finally {
+            leaseLock.unlock();
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return True when every connection carries the maximum leases.
+     */
+    boolean isFull() {
+        for (int i = 0; i < leases.length(); i++) {
+            if (leases.get(i) < maxLeases) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int size() {
+        return connections.length();
+    }
+
+    int getLeases() {
+        int sum = 0;
+        for (int i = 0; i < leases.length(); i++) {
+            sum += leases.get(i);
+        }
+        return sum;
+    }
+
+    int getUnusedConnections() {
+        int unused = 0;
+        for (int i = 0; i < leases.length(); i++) {
+            if (leases.get(i) == 0) {
+                unused++;
+            }
+        }
+        return unused;
+    }
+
+    private PersistentConnection lease(int slot,
+                                       Connection connection,
+                                       PersistentConnection.CloseCallback closeCallback,
+                                       PersistentConnection.QueryListener queryListener) {
+        return new PersistentConnection(connection, () -> {
+            releaseSlot(slot);
+            closeCallback.free();
+        }, queryListener, true);
+    }
+
+    /**
+     * @return The reserved slot with the least leases.
+     * @throws NoSuchElementException Thrown when every slot carried the maximum leases until the deadline.
+     */
+    private int reserveSlot(long deadline) {
+        int slot = tryReserveSlot(false);
+        if (slot >= 0) {
+            return slot;
+        }
+
+        leaseLock.lock();
+        // Counted before trying again, so a lease released in the meantime signals this thread.
+        waiting.incrementAndGet();
+        try {
+            while ((slot = tryReserveSlot(false)) < 0) {
+                if (closed) {
+                    throw new ReqlDriverError("Pool is not started.");
+                }
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new NoSuchElementException("Timeout waiting for a lease on a shared connection.");
+                }
+                leaseReleased.awaitNanos(remaining);
+            }
+            return slot;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReqlDriverError("Interrupted while waiting for a lease on a shared connection.", e);
+        } finally {
+            waiting.decrementAndGet();
+            leaseLock.unlock();
+        }
+    }
+
+    /**
+     * @param openOnly Whether only slots with an open connection should be reserved.
+     * @return The reserved slot with the least leases, -1 when every slot carries the maximum leases.
+     */
+    private int tryReserveSlot(boolean openOnly) {
+        while (true) {
+            int slot = -1;
+            for (int i = 0; i < leases.length(); i++) {
+                if ((slot < 0 || leases.get(i) < leases.get(slot)) && (!openOnly || isOpen(i))) {
+                    slot = i;
+                }
+            }
+            if (slot < 0) {
+                return -1;
+            }
+
+            final int current = leases.get(slot);
+            if (current >= maxLeases) {
+                return -1;
+            }
+            if (leases.compareAndSet(slot, current, current + 1)) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean isOpen(int slot) {
+        final Connection connection = connections.get(slot);
+        return connection != null && connection.isOpen();
+    }
+
+    private void releaseSlot(int slot) {
+        leases.decrementAndGet(slot);
+        if (waiting.get() > 0) {
+            leaseLock.lock();
+            try {
+                leaseReleased.signal();
+            } finally {
+                leaseLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @throws NoSuchElementException Thrown when another thread was still opening a connection at the deadline.
+     */
+    private Connection openConnection(int slot, long deadline) {
+        final Connection connection = connections.get(slot);
+        if (connection != null && connection.isOpen()) {
+            return connection;
+        }
+
+        try {
+            if (!connectLock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw new NoSuchElementException("Timeout waiting for a shared connection to be established.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReqlDriverError("Interrupted while waiting for a shared connection.", e);
+        }
+        try {
+            // Another thread might have replaced the connection while we were waiting.
+            final Connection current = connections.get(slot);
+            if (current != null && current.isOpen()) {
+                return current;
+            }
+            return replaceConnection(slot, current);
+        } finally {
+            connectLock.unlock();
+        }
+    }
+
+    /**
+     * Must be called while holding the connect lock.
+     *
+     * @param slot     The slot to replace.
+     * @param expected The connection which should be replaced, nothing is done when it was already replaced.
+     * @return The connection of the slot.
+     */
+    private Connection replaceConnection(int slot, Connection expected) {
+        if (closed) {
+            throw new ReqlDriverError("Pool is not started.");
+        }
+        final Connection current = connections.get(slot);
+        if (current != expected) {
+            return current;
+        }
+
+        try {
+            final Connection created = factory.create();
+            if (closed) {
+                created.close();
+                throw new ReqlDriverError("Pool is not started.");
+            }
+            connections.set(slot, created);
+            createdAt.set(slot, System.currentTimeMillis());
+            if (current != null) {
+                LOGGER.info("Replaced shared connection in slot {}.", slot);
+                current.close();
+            }
+            return created;
+        } catch (ReqlDriverError e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ReqlDriverError("Failed to open shared connection", e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+import de.jakobjarosch.rethinkdb.pool.CircuitBreaker.Permission;
+import de.jakobjarosch.rethinkdb.pool.ConnectionPoolMetrics.CircuitState;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensWhenFailureRateReached() {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 4, 60_000);
+
+        breaker.success();
+        breaker.failure();
+        breaker.success();
+        assertThat(breaker.getState()).isEqualTo(CircuitState.CLOSED);
+
+        breaker.failure();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitState.OPEN);
+        assertThat(breaker.tryAcquirePermission()).isEqualTo(Permission.REJECTED);
+    }
+
+    @Test
+    public void halfOpen_permitsSingleTrial() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 1, 50);
+        breaker.failure();
+        Thread.sleep(100);
+
+        Permission trial = breaker.tryAcquirePermission();
+        assertThat(trial).isEqualTo(Permission.TRIAL);
+        assertThat(breaker.getState()).isEqualTo(CircuitState.HALF_OPEN);
+        assertThat(breaker.tryAcquirePermission()).isEqualTo(Permission.REJECTED);
+
+        breaker.success(trial);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitState.CLOSED);
+        assertThat(breaker.tryAcquirePermission()).isEqualTo(Permission.PERMITTED);
+    }
+
+    @Test
+    public void halfOpen_ignoresOutcomesOfOtherRequests() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 1, 50);
+        breaker.failure();
+        Thread.sleep(100);
+        Permission trial = breaker.tryAcquirePermission();
+
+        breaker.success();
+        breaker.failure();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitState.HALF_OPEN);
+        breaker.release(trial);
+        assertThat(breaker.tryAcquirePermission()).isEqualTo(Permission.TRIAL);
+    }
+
+    @Test
+    public void halfOpen_concurrentRequestsGetSingleTrial() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 1, 50);
+        breaker.failure();
+        Thread.sleep(100);
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger trials = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (breaker.tryAcquirePermission() == Permission.TRIAL) {
+                    trials.incrementAndGet();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(trials.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void halfOpen_reopensOnFailure() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 1, 50);
+        breaker.failure();
+        Thread.sleep(100);
+        Permission trial = breaker.tryAcquirePermission();
+
+        breaker.failure(trial);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitState.OPEN);
+        assertThat(breaker.tryAcquirePermission()).isEqualTo(Permission.REJECTED);
+    }
+
+    @Test
+    public void disabled_neverOpens() {
+        CircuitBreaker breaker = CircuitBreaker.disabled();
+        for (int i = 0; i < 100; i++) {
+            breaker.failure();
+        }
+
+        assertThat(breaker.tryAcquirePermission()).isEqualTo(Permission.PERMITTED);
+        assertThat(breaker.getState()).isEqualTo(CircuitState.CLOSED);
+    }
+}
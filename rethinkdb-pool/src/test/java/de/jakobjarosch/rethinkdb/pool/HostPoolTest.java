@@ -0,0 +1,58 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+import com.rethinkdb.net.Connection;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HostPoolTest {
+
+    @Test
+    public void setMaxTotal_scalesFreeConnectionsInBothDirections() {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMaxTotal(10);
+        config.setMaxIdle(5);
+        config.setMinIdle(2);
+        GenericObjectPool<Connection> pool = new GenericObjectPool<>(
+                new ConnectionFactory("localhost", 28015, "admin", "", "test"), config);
+        HostPool host = new HostPool("localhost", 28015, pool, null, 3, 1000, CircuitBreaker.disabled());
+
+        host.setMaxTotal(20);
+        assertThat(pool.getMaxIdle()).isEqualTo(10);
+        assertThat(pool.getMinIdle()).isEqualTo(2);
+
+        host.setMaxTotal(2);
+        assertThat(pool.getMaxIdle()).isEqualTo(1);
+        assertThat(pool.getMinIdle()).isEqualTo(1);
+
+        host.setMaxTotal(20);
+        assertThat(pool.getMaxIdle()).isEqualTo(10);
+        assertThat(pool.getMinIdle()).isEqualTo(2);
+        pool.close();
+    }
+
+    @Test
+    public void borrow_destroysClosedConnectionOnRelease() throws Exception {
+        @SuppressWarnings("unchecked")
+        PooledObjectFactory<Connection> factory = mock(PooledObjectFactory.class);
+        Connection closed = mock(Connection.class);
+        when(factory.makeObject()).thenReturn(new DefaultPooledObject<>(closed));
+        GenericObjectPool<Connection> pool = new GenericObjectPool<>(factory, new GenericObjectPoolConfig());
+        HostPool host = new HostPool("localhost", 28015, pool, null, 3, 1000, CircuitBreaker.disabled());
+
+        host.borrow(0, () -> {
+        }).close();
+
+        verify(factory).destroyObject(any());
+        assertThat(pool.getNumIdle()).isEqualTo(0);
+        pool.close();
+    }
+}
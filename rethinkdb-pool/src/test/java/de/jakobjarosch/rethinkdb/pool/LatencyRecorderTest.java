@@ -0,0 +1,60 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class LatencyRecorderTest {
+
+    private long now;
+    private LatencyRecorder recorder;
+
+    @Before
+    public void setup() {
+        now = 1_000_000;
+        recorder = new LatencyRecorder(60_000, 6, () -> now);
+    }
+
+    @Test
+    public void binIndex_valueWithinUpperBound() {
+        for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 100, 1_000, 123_456, 99_999_999}) {
+            final int index = LatencyRecorder.binIndex(value);
+            assertThat(LatencyRecorder.upperBound(index)).isGreaterThanOrEqualTo(value);
+            assertThat(LatencyRecorder.upperBound(index) - value).isLessThanOrEqualTo(value / 16);
+        }
+    }
+
+    @Test
+    public void snapshot_percentiles() {
+        now += 10_000;
+        for (int i = 1; i <= 100; i++) {
+            recorder.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        final LatencyRecorder.Snapshot snapshot = recorder.snapshot();
+
+        assertThat(snapshot.getCount()).isEqualTo(100);
+        assertThat(snapshot.getAverage()).isCloseTo(50.5, within(0.01));
+        assertThat(snapshot.getPercentile(50)).isCloseTo(50, within(50 / 16.0));
+        assertThat(snapshot.getPercentile(99)).isCloseTo(99, within(99 / 16.0));
+        assertThat(snapshot.getMax()).isEqualTo(100);
+        assertThat(snapshot.getRatePerSecond()).isCloseTo(10, within(0.01));
+    }
+
+    @Test
+    public void snapshot_expiresOldSlices() {
+        recorder.record(TimeUnit.MILLISECONDS.toNanos(500));
+        now += 30_000;
+        recorder.record(TimeUnit.MILLISECONDS.toNanos(1));
+        now += 40_000;
+
+        final LatencyRecorder.Snapshot snapshot = recorder.snapshot();
+
+        assertThat(snapshot.getCount()).isEqualTo(1);
+        assertThat(snapshot.getMax()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,84 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+import com.rethinkdb.gen.exc.ReqlDriverError;
+import com.rethinkdb.net.Connection;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class LeakDetectorTest {
+
+    @Test
+    public void reportsLeakOncePerLease() {
+        LeakDetector detector = new LeakDetector(0, false);
+        PersistentConnection connection = new PersistentConnection(mock(Connection.class));
+        detector.borrowed(connection, borrowSite("com.example.Service", "load"));
+
+        detector.detect();
+        detector.detect();
+
+        assertThat(detector.getLeakedConnections()).isEqualTo(1);
+        assertThat(detector.getLeakSites()).containsOnlyKeys("com.example.Service.load(Service.java:42)");
+    }
+
+    @Test
+    public void ignoresReleasedAndYoungLeases() {
+        LeakDetector detector = new LeakDetector(60_000, false);
+        PersistentConnection released = new PersistentConnection(mock(Connection.class));
+        PersistentConnection young = new PersistentConnection(mock(Connection.class));
+        detector.borrowed(released, null);
+        detector.borrowed(young, null);
+        detector.released(released);
+
+        detector.detect();
+
+        assertThat(detector.getLeakedConnections()).isEqualTo(0);
+        assertThat(detector.getLeakSites()).isEmpty();
+    }
+
+    @Test
+    public void reclaimsLeakedConnection() {
+        LeakDetector detector = new LeakDetector(0, true);
+        AtomicInteger freed = new AtomicInteger();
+        Connection wrapped = mock(Connection.class);
+        PersistentConnection connection = new PersistentConnection(wrapped, freed::incrementAndGet);
+        detector.borrowed(connection, null);
+
+        detector.detect();
+
+        // The connection is closed, so the pool destroys it instead of handing it out again.
+        verify(wrapped).close(false);
+        assertThat(freed.get()).isEqualTo(1);
+        try {
+            connection.db();
+            fail("Reclaimed connection must not be usable");
+        } catch (ReqlDriverError e) {
+            assertThat(e.getMessage()).contains("reclaimed");
+        }
+    }
+
+    @Test
+    public void callSite_skipsLibraryFrames() {
+        Throwable site = new Throwable();
+        site.setStackTrace(new StackTraceElement[]{
+                new StackTraceElement("de.jakobjarosch.rethinkdb.pool.RethinkDBPool", "getConnection", "RethinkDBPool.java", 1),
+                new StackTraceElement("com.example.ModelDAO", "lambda$new$0", "ModelDAO.java", 2),
+                new StackTraceElement("com.example.Service", "load", "Service.java", 3)
+        });
+
+        assertThat(LeakDetector.getCallSite(site)).isEqualTo("com.example.Service.load(Service.java:3)");
+    }
+
+    private static Throwable borrowSite(String className, String method) {
+        Throwable site = new Throwable();
+        site.setStackTrace(new StackTraceElement[]{
+                new StackTraceElement(className, method, "Service.java", 42)
+        });
+        return site;
+    }
+}
@@ -0,0 +1,115 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+import com.rethinkdb.net.Connection;
+import de.jakobjarosch.rethinkdb.pool.ConnectionPoolMetrics.CircuitState;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PoolPartitionTest {
+
+    @Test
+    public void getConnection_trialServedByAnotherHostClosesCircuit() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 1, 10);
+        breaker.failure();
+        Thread.sleep(20);
+        PoolPartition partition = partition(breaker, failingHost(breaker), workingHost(breaker));
+
+        partition.getConnection(1);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitState.CLOSED);
+    }
+
+    @Test
+    public void getConnection_failedHostOfServedRequestIsNoFailure() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 2, 60_000);
+        PoolPartition partition = partition(breaker, failingHost(breaker), workingHost(breaker));
+
+        // The connections are kept, so the failing host is tried first by both requests.
+        partition.getConnection(1);
+        partition.getConnection(1);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitState.CLOSED);
+    }
+
+    @Test
+    public void getConnection_triesOtherHostsBeforeWaitingForExhaustedHost() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 2, 60_000);
+        HostPool exhausted = workingHost(breaker);
+        exhausted.setMaxTotal(0);
+        PoolPartition partition = partition(breaker, exhausted, workingHost(breaker));
+
+        // Both hosts have no outstanding connections, so each host is tried first once.
+        final long start = System.nanoTime();
+        partition.getConnection(1).close();
+        partition.getConnection(1).close();
+
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(breaker.getState()).isEqualTo(CircuitState.CLOSED);
+    }
+
+    @Test
+    public void getConnectionAsync_opensConnectionsOnConnector() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 2, 60_000);
+        List<String> connectingThreads = new CopyOnWriteArrayList<>();
+        PoolPartition partition = partition(breaker, workingHost(breaker, connectingThreads));
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService connector = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "connector"));
+        try {
+            Connection connection = partition.getConnectionAsync(1, scheduler, connector).get(5, TimeUnit.SECONDS);
+            assertThat(connectingThreads).containsExactly("connector");
+
+            // The free connection is handed out right away, without opening another one.
+            connection.close();
+            CompletableFuture<Connection> idle = partition.getConnectionAsync(1, scheduler, connector);
+            assertThat(idle.isDone()).isTrue();
+            assertThat(connectingThreads).hasSize(1);
+        } finally {
+            scheduler.shutdownNow();
+            connector.shutdownNow();
+        }
+    }
+
+    private static PoolPartition partition(CircuitBreaker breaker, HostPool... hosts) {
+        return new PoolPartition("test", Arrays.asList(hosts), LoadBalancing.LEAST_OUTSTANDING, breaker, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HostPool failingHost(CircuitBreaker breaker) throws Exception {
+        PooledObjectFactory<Connection> factory = mock(PooledObjectFactory.class);
+        when(factory.makeObject()).thenThrow(new IOException("Connection refused"));
+        return new HostPool("failing", 28015, new GenericObjectPool<>(factory), null, 100, 1000, breaker);
+    }
+
+    private static HostPool workingHost(CircuitBreaker breaker) throws Exception {
+        return workingHost(breaker, new ArrayList<>());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HostPool workingHost(CircuitBreaker breaker, List<String> connectingThreads) throws Exception {
+        PooledObjectFactory<Connection> factory = mock(PooledObjectFactory.class);
+        when(factory.makeObject()).thenAnswer(invocation -> {
+            connectingThreads.add(Thread.currentThread().getName());
+            Connection connection = mock(Connection.class);
+            when(connection.isOpen()).thenReturn(true);
+            return new DefaultPooledObject<>(connection);
+        });
+        return new HostPool("working", 28015, new GenericObjectPool<>(factory), null, 100, 1000, breaker);
+    }
+}
@@ -0,0 +1,128 @@
+package de.jakobjarosch.rethinkdb.pool;
+
+import com.rethinkdb.net.Connection;
+import org.junit.Test;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SharedConnectionsTest {
+
+    private static final PersistentConnection.QueryListener NO_LISTENER = (durationNanos, connectionFailure) -> {
+    };
+
+    @Test
+    public void acquire_placesLeasesOnLeastUsedConnection() throws Exception {
+        ConnectionFactory factory = factory();
+        SharedConnections shared = new SharedConnections(factory, 2, Integer.MAX_VALUE);
+
+        PersistentConnection first = shared.acquire(0, () -> {
+        }, NO_LISTENER);
+        PersistentConnection second = shared.acquire(0, () -> {
+        }, NO_LISTENER);
+        shared.acquire(0, () -> {
+        }, NO_LISTENER);
+
+        verify(factory, times(2)).create();
+        assertThat(shared.getLeases()).isEqualTo(3);
+        assertThat(shared.getUnusedConnections()).isEqualTo(0);
+
+        first.close();
+        second.close();
+        assertThat(shared.getLeases()).isEqualTo(1);
+        assertThat(shared.getUnusedConnections()).isEqualTo(1);
+    }
+
+    @Test
+    public void acquire_timesOutWhenAllConnectionsCarryMaximumLeases() throws Exception {
+        SharedConnections shared = new SharedConnections(factory(), 1, 1);
+        shared.acquire(0, () -> {
+        }, NO_LISTENER);
+        assertThat(shared.isFull()).isTrue();
+
+        final long start = System.nanoTime();
+        try {
+            shared.acquire(100, () -> {
+            }, NO_LISTENER);
+            fail("Lease must not exceed the maximum leases");
+        } catch (NoSuchElementException e) {
+            assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        assertThat(shared.getLeases()).isEqualTo(1);
+    }
+
+    @Test
+    public void acquire_waitsForReleasedLease() throws Exception {
+        SharedConnections shared = new SharedConnections(factory(), 1, 1);
+        PersistentConnection lease = shared.acquire(0, () -> {
+        }, NO_LISTENER);
+
+        CompletableFuture<PersistentConnection> waiting = CompletableFuture.supplyAsync(() -> shared.acquire(10_000, () -> {
+        }, NO_LISTENER));
+        Thread.sleep(100);
+        assertThat(waiting.isDone()).isFalse();
+
+        lease.close();
+        assertThat(waiting.get(5, TimeUnit.SECONDS).isOpen()).isTrue();
+        assertThat(shared.getLeases()).isEqualTo(1);
+    }
+
+    @Test
+    public void acquireOpen_neverOpensConnections() throws Exception {
+        ConnectionFactory factory = factory();
+        SharedConnections shared = new SharedConnections(factory, 2, Integer.MAX_VALUE);
+
+        try {
+            shared.acquireOpen(() -> {
+            }, NO_LISTENER);
+            fail("Lease must not open a connection");
+        } catch (NoSuchElementException e) {
+            verify(factory, never()).create();
+        }
+
+        shared.acquire(0, () -> {
+        }, NO_LISTENER);
+        shared.acquireOpen(() -> {
+        }, NO_LISTENER);
+
+        // The second lease is placed on the open connection, although the other slot is unused.
+        verify(factory, times(1)).create();
+        assertThat(shared.getLeases()).isEqualTo(2);
+        assertThat(shared.getUnusedConnections()).isEqualTo(1);
+    }
+
+    @Test
+    public void reclaim_keepsSharedConnectionOpen() throws Exception {
+        ConnectionFactory factory = mock(ConnectionFactory.class);
+        Connection connection = mock(Connection.class);
+        when(connection.isOpen()).thenReturn(true);
+        when(factory.create()).thenReturn(connection);
+        SharedConnections shared = new SharedConnections(factory, 1, Integer.MAX_VALUE);
+
+        shared.acquire(0, () -> {
+        }, NO_LISTENER).reclaim();
+
+        verify(connection, never()).close(false);
+        verify(connection, never()).close();
+        assertThat(shared.getLeases()).isEqualTo(0);
+    }
+
+    private static ConnectionFactory factory() throws Exception {
+        ConnectionFactory factory = mock(ConnectionFactory.class);
+        when(factory.create()).thenAnswer(invocation -> {
+            Connection connection = mock(Connection.class);
+            when(connection.isOpen()).thenReturn(true);
+            return connection;
+        });
+        return factory;
+    }
+}